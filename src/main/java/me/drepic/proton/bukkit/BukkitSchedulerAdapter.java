@@ -1,6 +1,8 @@
 package me.drepic.proton.bukkit;
 
 import me.drepic.proton.common.adapters.SchedulerAdapter;
+import me.drepic.proton.common.adapters.TaskHandle;
+import org.bukkit.scheduler.BukkitTask;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public class BukkitSchedulerAdapter implements SchedulerAdapter {
@@ -20,4 +22,20 @@ public class BukkitSchedulerAdapter implements SchedulerAdapter {
     public void runTaskAsynchronously(Runnable runnable) {
         this.plugin.getServer().getScheduler().runTaskAsynchronously(this.plugin, runnable);
     }
+
+    @Override
+    public TaskHandle runTaskTimer(Runnable runnable, long delayMillis, long periodMillis) {
+        BukkitTask task = this.plugin.getServer().getScheduler().runTaskTimer(this.plugin, runnable, toTicks(delayMillis), toTicks(periodMillis));
+        return task::cancel;
+    }
+
+    @Override
+    public TaskHandle runTaskTimerAsynchronously(Runnable runnable, long delayMillis, long periodMillis) {
+        BukkitTask task = this.plugin.getServer().getScheduler().runTaskTimerAsynchronously(this.plugin, runnable, toTicks(delayMillis), toTicks(periodMillis));
+        return task::cancel;
+    }
+
+    private static long toTicks(long millis) {
+        return Math.max(1, millis / 50);
+    }
 }
@@ -1,7 +1,11 @@
 package me.drepic.proton.bungee;
 
 import me.drepic.proton.common.adapters.SchedulerAdapter;
+import me.drepic.proton.common.adapters.TaskHandle;
 import net.md_5.bungee.api.plugin.Plugin;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+import java.util.concurrent.TimeUnit;
 
 public class BungeeSchedulerAdapter implements SchedulerAdapter {
 
@@ -21,4 +25,16 @@ public class BungeeSchedulerAdapter implements SchedulerAdapter {
     public void runTaskAsynchronously(Runnable runnable) {
         this.plugin.getProxy().getScheduler().runAsync(plugin, runnable);
     }
+
+    @Override
+    public TaskHandle runTaskTimer(Runnable runnable, long delayMillis, long periodMillis) {
+        //Like runTask, there is no main thread in bungee
+        return runTaskTimerAsynchronously(runnable, delayMillis, periodMillis);
+    }
+
+    @Override
+    public TaskHandle runTaskTimerAsynchronously(Runnable runnable, long delayMillis, long periodMillis) {
+        ScheduledTask task = this.plugin.getProxy().getScheduler().schedule(plugin, runnable, delayMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return task::cancel;
+    }
 }
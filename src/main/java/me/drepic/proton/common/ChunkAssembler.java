@@ -0,0 +1,231 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.codec.MessageCodec;
+import me.drepic.proton.common.codec.TypedCodec;
+import me.drepic.proton.common.message.MessageAttributes;
+import me.drepic.proton.common.message.MessageContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reassembles chunked transfers sent with {@link ProtonManager#sendChunked}.
+ * <br>InputStream handlers start with the first chunk and read the rest as it arrives, all other handlers run once
+ * the last chunk has arrived. Transfers which stop receiving chunks are dropped after the timeout.
+ * <br>A transfer holds one place in the {@link InboundBuffer}, charged with the bytes buffered for the other handlers
+ * as they arrive. Delivering a chunk never blocks the broker thread.
+ */
+class ChunkAssembler {
+
+    private final ProtonManager manager;
+    private final Map<TransferKey, Transfer> transfers;
+
+    ChunkAssembler(ProtonManager manager) {
+        this.manager = manager;
+        this.transfers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param handlers The handlers of the context which accept the message
+     * @param priority The priority the transfer is admitted to the {@link InboundBuffer} with
+     */
+    void accept(MessageAttributes messageAttributes, ContextEntry entry, RegisteredHandler[] handlers, MessageCodec codec, int priority, byte[] chunk) {
+        if (chunk.length < ChunkOutputStream.HEADER_LENGTH) {
+            this.manager.getLogger().warning("Received a chunk without a header.");
+            return;
+        }
+        ByteBuffer header = ByteBuffer.wrap(chunk);
+        long transferID = header.getLong();
+        int sequence = header.getInt();
+        boolean last = header.get() != 0;
+
+        TransferKey key = new TransferKey(messageAttributes.getSenderID(), transferID);
+        Transfer transfer;
+        if (sequence == 0) {
+            transfer = start(key, messageAttributes, entry, handlers, codec, priority);
+        } else {
+            transfer = this.transfers.get(key);
+            if (transfer == null) {
+                this.manager.getLogger().warning(String.format("Received chunk %d of an unknown transfer from %s, it probably timed out.",
+                        sequence, messageAttributes.getSenderName()));
+                return;
+            }
+        }
+
+        synchronized (transfer) {
+            if (transfer.dropped) { //Skip the rest quietly, the reason was logged once
+                transfer.lastActivity = System.currentTimeMillis();
+                if (last) {
+                    this.transfers.remove(key, transfer);
+                }
+                return;
+            }
+            if (transfer.nextSequence != sequence) {
+                abort(transfer, String.format("Expected chunk %d but received %d", transfer.nextSequence, sequence));
+                return;
+            }
+            transfer.nextSequence++;
+            transfer.lastActivity = System.currentTimeMillis();
+            int length = chunk.length - ChunkOutputStream.HEADER_LENGTH;
+            transfer.size += length;
+            if (transfer.size > this.manager.maxChunkedTransferSize) {
+                abort(transfer, "Transfer exceeds the maximum size");
+                return;
+            }
+
+            if (transfer.buffer != null) {
+                if (!this.manager.inboundBuffer.grow(transfer.ticket, length)) {
+                    abort(transfer, "The inbound buffer is full");
+                    return;
+                }
+                transfer.buffer.write(chunk, ChunkOutputStream.HEADER_LENGTH, length);
+            }
+            for (ChunkInputStream stream : transfer.streams) {
+                if (!stream.offer(chunk, ChunkOutputStream.HEADER_LENGTH)) {
+                    abort(transfer, "A handler did not keep up with the stream");
+                    return;
+                }
+                if (last) {
+                    stream.finish();
+                }
+            }
+
+            if (last) {
+                this.transfers.remove(key);
+                if (transfer.buffer != null) {
+                    LazyPayload payload = new LazyPayload(transfer.typedCodec, this.manager.compressor, null, MessageFlags.NONE,
+                            transfer.buffer.toByteArray(), null);
+                    payload.setTicket(transfer.ticket);
+                    this.manager.dispatch(transfer.waitingHandlers, payload, transfer.messageAttributes);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Transfer The new transfer, already dropped when the inbound buffer had no room for it
+     */
+    private Transfer start(TransferKey key, MessageAttributes messageAttributes, ContextEntry entry, RegisteredHandler[] handlers,
+                           MessageCodec codec, int priority) {
+        InboundBuffer.Ticket ticket = this.manager.inboundBuffer.admit(
+                new MessageContext(messageAttributes.getNamespace(), messageAttributes.getSubject()), 0, handlers.length, priority);
+        if (ticket == null) { //Counted as dropped by the buffer
+            Transfer dropped = new Transfer(messageAttributes, new RegisteredHandler[0], null, InboundBuffer.Ticket.UNTRACKED);
+            dropped.dropped = true;
+            replace(key, dropped);
+            return dropped;
+        }
+        RegisteredHandler[] streamingHandlers = Arrays.stream(handlers).filter(handler -> handler.streaming).toArray(RegisteredHandler[]::new);
+        RegisteredHandler[] waitingHandlers = Arrays.stream(handlers).filter(handler -> !handler.streaming).toArray(RegisteredHandler[]::new);
+
+        Transfer transfer = new Transfer(messageAttributes, waitingHandlers, entry.typedCodec(codec), ticket);
+        Queue<InputStream> streams = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < streamingHandlers.length; i++) {
+            ChunkInputStream stream = new ChunkInputStream(this.manager.chunkTimeoutMillis);
+            transfer.streams.add(stream);
+            streams.add(stream);
+        }
+
+        replace(key, transfer);
+
+        if (streamingHandlers.length > 0) {
+            LazyPayload payload = new LazyPayload(null, this.manager.compressor, null, MessageFlags.NONE, null, streams);
+            payload.setTicket(ticket);
+            this.manager.dispatch(streamingHandlers, payload, messageAttributes);
+        }
+        return transfer;
+    }
+
+    private void replace(TransferKey key, Transfer transfer) {
+        Transfer previous = this.transfers.put(key, transfer);
+        if (previous != null) {
+            synchronized (previous) {
+                abort(previous, "Transfer was restarted");
+            }
+        }
+    }
+
+    /**
+     * Fail the transfer, called with its lock held. It stays known until its last chunk arrives or it times out,
+     * so the chunks still on their way are dropped without a warning each
+     */
+    private void abort(Transfer transfer, String reason) {
+        if (transfer.dropped) {
+            return;
+        }
+        transfer.dropped = true;
+        IOException failure = new IOException("Chunked transfer failed: " + reason);
+        transfer.streams.forEach(stream -> stream.fail(failure));
+        transfer.buffer = null;
+        this.manager.inboundBuffer.release(transfer.ticket); //The waiting handlers will never run
+        this.manager.getLogger().warning(String.format("Dropped chunked transfer from %s: %s",
+                transfer.messageAttributes.getSenderName(), reason));
+    }
+
+    /**
+     * Drop every transfer which has not received a chunk within the timeout
+     */
+    void expire() {
+        long cutoff = System.currentTimeMillis() - this.manager.chunkTimeoutMillis;
+        this.transfers.forEach((key, transfer) -> {
+            synchronized (transfer) {
+                if (transfer.lastActivity < cutoff) {
+                    abort(transfer, "Timed out");
+                    this.transfers.remove(key, transfer);
+                }
+            }
+        });
+    }
+
+    private static class Transfer {
+        final MessageAttributes messageAttributes;
+        final RegisteredHandler[] waitingHandlers;
+        final TypedCodec<Object> typedCodec;
+        final InboundBuffer.Ticket ticket;
+        final List<ChunkInputStream> streams;
+        ByteArrayOutputStream buffer; //Null when no handler needs the whole payload
+        boolean dropped;
+        int nextSequence;
+        long size;
+        volatile long lastActivity;
+
+        Transfer(MessageAttributes messageAttributes, RegisteredHandler[] waitingHandlers,
+                 TypedCodec<Object> typedCodec, InboundBuffer.Ticket ticket) {
+            this.messageAttributes = messageAttributes;
+            this.waitingHandlers = waitingHandlers;
+            this.typedCodec = typedCodec;
+            this.ticket = ticket;
+            this.streams = new ArrayList<>();
+            this.buffer = waitingHandlers.length == 0 ? null : new ByteArrayOutputStream();
+            this.lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    private static class TransferKey {
+        final UUID senderID;
+        final long transferID;
+
+        TransferKey(UUID senderID, long transferID) {
+            this.senderID = senderID;
+            this.transferID = transferID;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TransferKey that = (TransferKey) o;
+            return transferID == that.transferID && senderID.equals(that.senderID);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(senderID, transferID);
+        }
+    }
+}
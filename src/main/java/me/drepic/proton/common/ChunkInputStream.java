@@ -0,0 +1,114 @@
+package me.drepic.proton.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The receiving end of a chunked transfer handed to an InputStream {@link me.drepic.proton.common.message.MessageHandler}.
+ * Only a few chunks are buffered. A reader which falls further behind fails the transfer, the broker thread
+ * delivering the chunks never waits for it.
+ */
+class ChunkInputStream extends InputStream {
+
+    private static final byte[] END = new byte[0];
+    private static final int CAPACITY = 16;
+
+    private final BlockingQueue<byte[]> chunks;
+    private final long timeoutMillis;
+    private volatile IOException failure;
+
+    private byte[] current;
+    private int offset;
+    private boolean ended;
+
+    ChunkInputStream(long timeoutMillis) {
+        this.chunks = new ArrayBlockingQueue<>(CAPACITY + 1); //The last place is kept for END
+        this.timeoutMillis = timeoutMillis;
+        this.current = END;
+    }
+
+    /**
+     * Queue a chunk without waiting, only ever called by one thread at a time
+     *
+     * @return boolean false when the reader is too far behind
+     */
+    boolean offer(byte[] chunk, int offset) {
+        if (chunk.length == offset) {
+            return true;
+        }
+        if (this.chunks.remainingCapacity() <= 1) {
+            return false;
+        }
+        byte[] data = new byte[chunk.length - offset];
+        System.arraycopy(chunk, offset, data, 0, data.length);
+        return this.chunks.offer(data);
+    }
+
+    void finish() {
+        this.chunks.offer(END);
+    }
+
+    void fail(IOException e) {
+        this.failure = e;
+        this.chunks.clear();
+        this.chunks.offer(END);
+    }
+
+    private boolean fill() throws IOException {
+        while (this.offset >= this.current.length) {
+            if (this.ended) {
+                return false;
+            }
+            byte[] next;
+            try {
+                next = this.chunks.poll(this.timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the next chunk", e);
+            }
+            if (this.failure != null) {
+                throw this.failure;
+            }
+            if (next == null) {
+                throw new IOException("Timed out waiting for the next chunk");
+            }
+            if (next == END) {
+                this.ended = true;
+                return false;
+            }
+            this.current = next;
+            this.offset = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return this.current[this.offset++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, this.current.length - this.offset);
+        System.arraycopy(this.current, this.offset, bytes, offset, count);
+        this.offset += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.current.length - this.offset;
+    }
+}
@@ -0,0 +1,74 @@
+package me.drepic.proton.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits everything written to it into chunks which are sent as soon as they are full,
+ * so a chunked transfer never holds more than one chunk in memory.
+ * <br>Each chunk starts with [transfer id: 8 bytes][sequence: 4 bytes][last: 1 byte]
+ */
+class ChunkOutputStream extends OutputStream {
+
+    static final int HEADER_LENGTH = 8 + 4 + 1;
+
+    interface ChunkSender {
+        void send(byte[] chunk) throws IOException;
+    }
+
+    private final ChunkSender sender;
+    private final long transferID;
+    private final byte[] buffer;
+    private int position;
+    private int sequence;
+    private boolean closed;
+
+    ChunkOutputStream(ChunkSender sender, long transferID, int chunkSize) {
+        this.sender = sender;
+        this.transferID = transferID;
+        this.buffer = new byte[HEADER_LENGTH + chunkSize];
+        this.position = HEADER_LENGTH;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.position == this.buffer.length) {
+            sendChunk(false);
+        }
+        this.buffer[this.position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (this.position == this.buffer.length) {
+                sendChunk(false);
+            }
+            int count = Math.min(length, this.buffer.length - this.position);
+            System.arraycopy(bytes, offset, this.buffer, this.position, count);
+            this.position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!this.closed) {
+            this.closed = true;
+            sendChunk(true);
+        }
+    }
+
+    private void sendChunk(boolean last) throws IOException {
+        ByteBuffer.wrap(this.buffer)
+                .putLong(this.transferID)
+                .putInt(this.sequence++)
+                .put((byte) (last ? 1 : 0));
+        byte[] chunk = new byte[this.position];
+        System.arraycopy(this.buffer, 0, chunk, 0, this.position);
+        this.position = HEADER_LENGTH;
+        this.sender.send(chunk);
+    }
+}
@@ -0,0 +1,80 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.exception.MessageSendException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Completes the futures of messages published on a RabbitMQ channel in confirm mode. The broker confirms
+ * many publishes at once by sequence number, so those are completed together.
+ */
+class ConfirmTracker {
+
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> outstanding;
+
+    ConfirmTracker() {
+        this.outstanding = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Track a publish, call before publishing with the sequence number the channel will assign to it
+     */
+    CompletableFuture<Void> track(long sequenceNumber) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        this.outstanding.put(sequenceNumber, future);
+        return future;
+    }
+
+    /**
+     * Stop tracking a publish which failed before reaching the broker
+     */
+    void forget(long sequenceNumber) {
+        this.outstanding.remove(sequenceNumber);
+    }
+
+    void ack(long sequenceNumber, boolean multiple) {
+        for (CompletableFuture<Void> future : confirmed(sequenceNumber, multiple)) {
+            future.complete(null);
+        }
+    }
+
+    void nack(long sequenceNumber, boolean multiple) {
+        MessageSendException exception = new MessageSendException(new IOException("The broker could not accept the message"));
+        for (CompletableFuture<Void> future : confirmed(sequenceNumber, multiple)) {
+            future.completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * Fail every publish still waiting, for when the channel closes
+     */
+    void failAll(Exception cause) {
+        MessageSendException exception = new MessageSendException(cause);
+        Map.Entry<Long, CompletableFuture<Void>> entry;
+        while ((entry = this.outstanding.pollFirstEntry()) != null) {
+            entry.getValue().completeExceptionally(exception);
+        }
+    }
+
+    int size() {
+        return this.outstanding.size();
+    }
+
+    private Iterable<CompletableFuture<Void>> confirmed(long sequenceNumber, boolean multiple) {
+        if (!multiple) {
+            CompletableFuture<Void> future = this.outstanding.remove(sequenceNumber);
+            return future == null ? Collections.emptyList() : Collections.singletonList(future);
+        }
+        ConcurrentNavigableMap<Long, CompletableFuture<Void>> head = this.outstanding.headMap(sequenceNumber, true);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(head.values());
+        head.clear();
+        return futures;
+    }
+}
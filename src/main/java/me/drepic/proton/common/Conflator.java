@@ -0,0 +1,65 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.message.MessageAttributes;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Holds the newest waiting message per key for one conflating MessageHandler. Only the first message of a key
+ * schedules the handler, later ones replace it until the handler runs and takes whichever is newest.
+ */
+class Conflator {
+
+    private final ConcurrentHashMap<Object, Pending> pending;
+    private final AtomicLong conflated; //Shared by the manager
+
+    Conflator(AtomicLong conflated) {
+        this.pending = new ConcurrentHashMap<>();
+        this.conflated = conflated;
+    }
+
+    /**
+     * @return boolean Whether the handler needs to be scheduled, false when an already scheduled call takes this message
+     */
+    boolean offer(Object key, LazyPayload payload, MessageAttributes messageAttributes) {
+        Pending previous = this.pending.put(key, new Pending(payload, messageAttributes));
+        if (previous == null) {
+            return true;
+        }
+        previous.payload.end(); //Replaced before its handler ran
+        this.conflated.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Run the handler with the newest message of the key, called by the scheduled call
+     */
+    void run(Object key, BiConsumer<LazyPayload, MessageAttributes> handler) {
+        Pending latest = this.pending.remove(key);
+        if (latest != null) {
+            handler.accept(latest.payload, latest.messageAttributes);
+        }
+    }
+
+    /**
+     * Forget the waiting message of the key when its call could not be scheduled, so the next message schedules again
+     */
+    void abandon(Object key) {
+        Pending pending = this.pending.remove(key);
+        if (pending != null) {
+            pending.payload.end();
+        }
+    }
+
+    private static class Pending {
+        final LazyPayload payload;
+        final MessageAttributes messageAttributes;
+
+        Pending(LazyPayload payload, MessageAttributes messageAttributes) {
+            this.payload = payload;
+            this.messageAttributes = messageAttributes;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.codec.MessageCodec;
+import me.drepic.proton.common.codec.TypedCodec;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The {@link TypedCodec}s for a single {@link me.drepic.proton.common.message.MessageContext}, indexed by codec id.
+ * Each one is created the first time a message with that codec is sent or received and then reused.
+ */
+class ContextCodecs {
+
+    final Class<?> type;
+    private final AtomicReferenceArray<TypedCodec<Object>> codecs;
+
+    ContextCodecs(Class<?> type) {
+        this.type = type;
+        this.codecs = new AtomicReferenceArray<>(256);
+    }
+
+    @SuppressWarnings("unchecked")
+    TypedCodec<Object> get(MessageCodec codec) {
+        int index = codec.getId() & 0xFF;
+        TypedCodec<Object> typedCodec = this.codecs.get(index);
+        if (typedCodec == null) { //Creating twice in a race is harmless
+            typedCodec = (TypedCodec<Object>) codec.forType(this.type);
+            this.codecs.set(index, typedCodec);
+        }
+        return typedCodec;
+    }
+}
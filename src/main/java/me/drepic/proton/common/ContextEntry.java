@@ -0,0 +1,79 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.codec.MessageCodec;
+import me.drepic.proton.common.codec.TypedCodec;
+import me.drepic.proton.common.exception.RegisterMessageHandlerException;
+import me.drepic.proton.common.message.MessageAttributes;
+import me.drepic.proton.common.message.Priority;
+
+import java.util.Arrays;
+
+/**
+ * Everything a delivery needs to know about one {@link me.drepic.proton.common.message.MessageContext}.
+ * Entries are immutable, registering a handler publishes a new one, so deliveries never lock.
+ */
+final class ContextEntry {
+
+    static final ContextEntry EMPTY = new ContextEntry(null, null, new RegisteredHandler[0], Priority.LOW, false);
+
+    final Class<?> type; //The defined data type, null while only raw and attribute handlers are registered
+    final ContextCodecs codecs; //Null when there is no data type
+    final RegisteredHandler[] handlers; //Never modified
+    final Priority priority; //The highest of the handlers
+    final boolean filtered; //Some handlers have sender filters
+
+    private ContextEntry(Class<?> type, ContextCodecs codecs, RegisteredHandler[] handlers, Priority priority, boolean filtered) {
+        this.type = type;
+        this.codecs = codecs;
+        this.handlers = handlers;
+        this.priority = priority;
+        this.filtered = filtered;
+    }
+
+    /**
+     * @param type The data type the handler defines, or null for raw and attribute handlers
+     * @return ContextEntry A copy with the handler added
+     * @throws RegisterMessageHandlerException When the handler defines a different data type
+     */
+    ContextEntry withHandler(Class<?> type, RegisteredHandler handler) {
+        Class<?> definedType = this.type;
+        ContextCodecs codecs = this.codecs;
+        if (type != null) {
+            if (definedType == null) {
+                definedType = type;
+                codecs = new ContextCodecs(type);
+            } else if (!definedType.equals(type)) {
+                throw new RegisterMessageHandlerException("MessageContext already has defined data type");
+            }
+        }
+
+        RegisteredHandler[] handlers = Arrays.copyOf(this.handlers, this.handlers.length + 1);
+        handlers[this.handlers.length] = handler;
+        Priority priority = handler.priority.compareTo(this.priority) > 0 ? handler.priority : this.priority;
+        return new ContextEntry(definedType, codecs, handlers, priority, this.filtered || handler.filter != null);
+    }
+
+    /**
+     * @return RegisteredHandler[] The handlers whose filters accept the message, without copying when none have filters
+     */
+    RegisteredHandler[] accepting(MessageAttributes messageAttributes) {
+        if (!this.filtered) {
+            return this.handlers;
+        }
+        int count = 0;
+        RegisteredHandler[] accepting = new RegisteredHandler[this.handlers.length];
+        for (RegisteredHandler handler : this.handlers) {
+            if (handler.accepts(messageAttributes)) {
+                accepting[count++] = handler;
+            }
+        }
+        return count == accepting.length ? this.handlers : Arrays.copyOf(accepting, count);
+    }
+
+    /**
+     * @return TypedCodec The codec to decode with, or null when there is no data type to decode to
+     */
+    TypedCodec<Object> typedCodec(MessageCodec codec) {
+        return this.codecs == null ? null : this.codecs.get(codec);
+    }
+}
@@ -0,0 +1,17 @@
+package me.drepic.proton.common;
+
+/**
+ * A message body after encoding, along with what the receiver needs to decode it
+ */
+class EncodedPayload {
+
+    final byte codec;
+    final byte flags;
+    final byte[] data;
+
+    EncodedPayload(byte codec, byte flags, byte[] data) {
+        this.codec = codec;
+        this.flags = flags;
+        this.data = data;
+    }
+}
@@ -0,0 +1,110 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.exception.RegisterMessageHandlerException;
+import me.drepic.proton.common.message.MessageAttributes;
+import me.drepic.proton.common.message.MessageFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * The sender filters of one {@link me.drepic.proton.common.message.MessageHandler}, checked against the attributes
+ * of a message before it is decoded or scheduled
+ */
+final class HandlerFilter implements Predicate<MessageAttributes> {
+
+    private final Predicate<String>[] senders; //Any must match, empty for every sender
+    private final Predicate<String>[] ignoreSenders; //None may match
+    private final String[] senderGroups; //Any must be a group of the sender, empty for every sender
+    private final MessageFilter[] filters; //All must accept
+
+    private HandlerFilter(Predicate<String>[] senders, Predicate<String>[] ignoreSenders, String[] senderGroups, MessageFilter[] filters) {
+        this.senders = senders;
+        this.ignoreSenders = ignoreSenders;
+        this.senderGroups = senderGroups;
+        this.filters = filters;
+    }
+
+    /**
+     * @return HandlerFilter The filter, or null when the handler has none so no check is needed
+     * @throws RegisterMessageHandlerException When a {@link MessageFilter} cannot be created
+     */
+    static HandlerFilter of(String[] senders, String[] ignoreSenders, String[] senderGroups, Class<? extends MessageFilter>[] filters) {
+        if (senders.length == 0 && ignoreSenders.length == 0 && senderGroups.length == 0 && filters.length == 0) {
+            return null;
+        }
+
+        MessageFilter[] instances = new MessageFilter[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            try {
+                instances[i] = filters[i].getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new RegisterMessageHandlerException(String.format("Unable to create MessageFilter %s, it needs a public constructor without parameters", filters[i].getName()));
+            }
+        }
+        return new HandlerFilter(patterns(senders), patterns(ignoreSenders), senderGroups.clone(), instances);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Predicate<String>[] patterns(String[] globs) {
+        List<Predicate<String>> patterns = new ArrayList<>(globs.length);
+        for (String glob : globs) {
+            if (glob.indexOf('*') < 0) { //Plain names are compared directly
+                patterns.add(glob::equals);
+                continue;
+            }
+            StringBuilder regex = new StringBuilder();
+            String[] parts = glob.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    regex.append(".*");
+                }
+                if (!parts[i].isEmpty()) {
+                    regex.append(Pattern.quote(parts[i]));
+                }
+            }
+            patterns.add(Pattern.compile(regex.toString()).asMatchPredicate());
+        }
+        return patterns.toArray(new Predicate[0]);
+    }
+
+    @Override
+    public boolean test(MessageAttributes attributes) {
+        String senderName = attributes.getSenderName();
+        if (this.senders.length > 0 && !matchesAny(this.senders, senderName)) {
+            return false;
+        }
+        if (matchesAny(this.ignoreSenders, senderName)) {
+            return false;
+        }
+        if (this.senderGroups.length > 0 && !inAnyGroup(attributes.getSenderGroups())) {
+            return false;
+        }
+        for (MessageFilter filter : this.filters) {
+            if (!filter.accept(attributes)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesAny(Predicate<String>[] patterns, String senderName) {
+        for (Predicate<String> pattern : patterns) {
+            if (pattern.test(senderName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean inAnyGroup(List<String> groups) {
+        for (String group : this.senderGroups) {
+            if (groups.contains(group)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
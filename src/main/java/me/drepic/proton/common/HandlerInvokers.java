@@ -0,0 +1,91 @@
+package me.drepic.proton.common;
+
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Turns annotated handler methods into plain Consumer/BiConsumer calls the JIT can inline, instead of going through
+ * {@link Method#invoke} with its boxing, argument arrays and access checks on every message.
+ * <br>Exceptions thrown by the handler are not wrapped, checked exceptions included.
+ */
+final class HandlerInvokers {
+
+    private HandlerInvokers() {
+    }
+
+    /**
+     * @return Consumer Calls the one parameter method on the target
+     */
+    @SuppressWarnings("unchecked")
+    static Consumer<Object> oneArg(Object target, Method method) {
+        MethodHandle handle = unreflect(method);
+        try {
+            return (Consumer<Object>) metafactory(target, method, handle, Consumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class));
+        } catch (Throwable ignored) { //Handler classes from other plugins can't always host a lambda, fall back to a bound handle
+        }
+        MethodHandle bound = bind(target, method, handle).asType(MethodType.methodType(void.class, Object.class));
+        return argument -> {
+            try {
+                bound.invokeExact(argument);
+            } catch (Throwable t) {
+                throw sneakyThrow(t);
+            }
+        };
+    }
+
+    /**
+     * @return BiConsumer Calls the two parameter method on the target
+     */
+    @SuppressWarnings("unchecked")
+    static BiConsumer<Object, Object> twoArg(Object target, Method method) {
+        MethodHandle handle = unreflect(method);
+        try {
+            return (BiConsumer<Object, Object>) metafactory(target, method, handle, BiConsumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (Throwable ignored) {
+        }
+        MethodHandle bound = bind(target, method, handle).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        return (first, second) -> {
+            try {
+                bound.invokeExact(first, second);
+            } catch (Throwable t) {
+                throw sneakyThrow(t);
+            }
+        };
+    }
+
+    private static MethodHandle bind(Object target, Method method, MethodHandle handle) {
+        return Modifier.isStatic(method.getModifiers()) ? handle : handle.bindTo(target);
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        try {
+            method.setAccessible(true); //Handlers are often declared in anonymous or non public classes
+            return MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object metafactory(Object target, Method method, MethodHandle handle, Class<?> functionalInterface,
+                                      String name, MethodType samType) throws Throwable {
+        if (Modifier.isStatic(method.getModifiers())) {
+            throw new IllegalArgumentException("Static handlers are bound with a handle");
+        }
+        Class<?> targetClass = method.getDeclaringClass();
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(targetClass, MethodHandles.lookup());
+        MethodType instantiatedType = handle.type().dropParameterTypes(0, 1).wrap().changeReturnType(void.class);
+        CallSite site = LambdaMetafactory.metafactory(lookup, name,
+                MethodType.methodType(functionalInterface, targetClass), samType, handle, instantiatedType);
+        return site.getTarget().invoke(target);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> RuntimeException sneakyThrow(Throwable t) throws T {
+        throw (T) t;
+    }
+}
@@ -0,0 +1,334 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.message.MessageContext;
+import me.drepic.proton.common.message.OverflowPolicy;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the messages which were received but whose handlers have not all finished, by count and by bytes.
+ * A message holds its place from delivery until its last handler returns. When it would not fit, the
+ * {@link OverflowPolicy} of its context decides what gives way.
+ * <br>Unbounded by default, in which case nothing is tracked.
+ */
+class InboundBuffer {
+
+    private final ReentrantLock lock;
+    private final Condition space;
+    private final LinkedHashSet<Ticket> pending; //In arrival order, guarded by lock
+    private int messages;
+    private long bytes;
+
+    private volatile int maxMessages; //-1 for unbounded
+    private volatile long maxBytes; //-1 for unbounded
+    private volatile long blockTimeoutNanos;
+    private volatile OverflowPolicy defaultPolicy;
+    private volatile boolean closed;
+
+    private final Map<MessageContext, OverflowPolicy> policies;
+    private final Map<MessageContext, Integer> priorities;
+    private final Map<MessageContext, AtomicLong> dropped;
+    private final AtomicLong droppedTotal;
+
+    InboundBuffer() {
+        this.lock = new ReentrantLock();
+        this.space = this.lock.newCondition();
+        this.pending = new LinkedHashSet<>();
+        this.maxMessages = -1;
+        this.maxBytes = -1;
+        this.blockTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+        this.defaultPolicy = OverflowPolicy.DROP_NEWEST;
+        this.policies = new ConcurrentHashMap<>();
+        this.priorities = new ConcurrentHashMap<>();
+        this.dropped = new ConcurrentHashMap<>();
+        this.droppedTotal = new AtomicLong();
+    }
+
+    /**
+     * Make room for a received message, blocking the calling broker thread if its policy says so
+     *
+     * @param context  The context of the message
+     * @param size     The size of the message as received
+     * @param handlers How many handlers will call {@link Ticket#end()}
+     * @param priority The priority of the message, unless its context has one set
+     * @return Ticket The place of the message, or null when it was dropped
+     */
+    Ticket admit(MessageContext context, int size, int handlers, int priority) {
+        if (this.maxMessages < 0 && this.maxBytes < 0) {
+            return Ticket.UNTRACKED;
+        }
+
+        OverflowPolicy policy = this.policies.getOrDefault(context, this.defaultPolicy);
+        Ticket ticket = new Ticket(this, context, size, this.priorities.getOrDefault(context, priority), handlers);
+        this.lock.lock();
+        try {
+            long remainingNanos = this.blockTimeoutNanos;
+            while (!fits(size)) {
+                if (this.closed || !makeRoom(ticket, policy)) {
+                    if (policy != OverflowPolicy.BLOCK || this.closed || remainingNanos <= 0) {
+                        drop(context);
+                        return null;
+                    }
+                    remainingNanos = this.space.awaitNanos(remainingNanos);
+                }
+            }
+            this.pending.add(ticket);
+            this.messages++;
+            this.bytes += size;
+            return ticket;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drop(context);
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Charge more bytes to a message which is still being received, like a chunked transfer. Never blocks and
+     * never drops other messages to make room
+     *
+     * @return boolean false when the bytes don't fit or the message was dropped meanwhile
+     */
+    boolean grow(Ticket ticket, int size) {
+        if (ticket.buffer == null) {
+            return true;
+        }
+        this.lock.lock();
+        try {
+            if (!this.pending.contains(ticket)) { //Already counted as dropped
+                return false;
+            }
+            long maxBytes = this.maxBytes;
+            if (maxBytes >= 0 && this.messages > 1 && this.bytes + size > maxBytes) { //Alone, it still gets through
+                drop(ticket.context);
+                return false;
+            }
+            ticket.size += size;
+            this.bytes += size;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean fits(int size) {
+        if (this.messages == 0) { //A single message larger than the limit still gets through on its own
+            return true;
+        }
+        int maxMessages = this.maxMessages;
+        long maxBytes = this.maxBytes;
+        return (maxMessages < 0 || this.messages < maxMessages) && (maxBytes < 0 || this.bytes + size <= maxBytes);
+    }
+
+    /**
+     * Drop one waiting message in favour of the given one, called with the lock held
+     *
+     * @return boolean Whether a message was dropped
+     */
+    private boolean makeRoom(Ticket incoming, OverflowPolicy policy) {
+        Ticket victim = null;
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+            for (Ticket ticket : this.pending) {
+                if (ticket.context.equals(incoming.context) && ticket.isQueued()) {
+                    victim = ticket;
+                    break;
+                }
+            }
+        } else if (policy == OverflowPolicy.SHED_PRIORITY) {
+            for (Ticket ticket : this.pending) { //The first of the lowest priority is the oldest
+                if (ticket.priority < incoming.priority && ticket.isQueued() && (victim == null || ticket.priority < victim.priority)) {
+                    victim = ticket;
+                }
+            }
+        }
+
+        if (victim == null || !victim.cancel()) {
+            return false;
+        }
+        victim.discard(); //Its handlers stay queued until they reach begin(), don't let them keep the bytes until then
+        remove(victim);
+        drop(victim.context);
+        return true;
+    }
+
+    private void drop(MessageContext context) {
+        this.droppedTotal.incrementAndGet();
+        this.dropped.computeIfAbsent(context, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Free the place of a message, does nothing when it was already freed
+     */
+    void release(Ticket ticket) {
+        this.lock.lock();
+        try {
+            if (remove(ticket)) {
+                this.space.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private boolean remove(Ticket ticket) {
+        if (!this.pending.remove(ticket)) {
+            return false;
+        }
+        this.messages--;
+        this.bytes -= ticket.size;
+        return true;
+    }
+
+    /**
+     * Stop blocking broker threads, messages which don't fit are dropped from now on
+     */
+    void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.space.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    void setLimits(int maxMessages, long maxBytes, long blockTimeoutMillis) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.lock.lock();
+        try {
+            this.space.signalAll(); //The limits may have grown
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    void setDefaultPolicy(OverflowPolicy policy) {
+        this.defaultPolicy = policy;
+    }
+
+    void setPolicy(MessageContext context, OverflowPolicy policy) {
+        if (policy == null) {
+            this.policies.remove(context);
+        } else {
+            this.policies.put(context, policy);
+        }
+    }
+
+    void setPriority(MessageContext context, int priority) {
+        this.priorities.put(context, priority);
+    }
+
+    int getMessages() {
+        this.lock.lock();
+        try {
+            return this.messages;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    long getBytes() {
+        this.lock.lock();
+        try {
+            return this.bytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    long getDropped() {
+        return this.droppedTotal.get();
+    }
+
+    long getDropped(MessageContext context) {
+        AtomicLong count = this.dropped.get(context);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * The place of one received message. Each handler calls {@link Ticket#begin()} before running and
+     * {@link Ticket#end()} after, the place is freed by the last one.
+     */
+    static class Ticket {
+
+        static final Ticket UNTRACKED = new Ticket(null, null, 0, 0, 0);
+
+        private static final int QUEUED = 0;
+        private static final int STARTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final InboundBuffer buffer;
+        final MessageContext context;
+        int size; //Guarded by the lock of the buffer
+        final int priority;
+        private final AtomicInteger state;
+        private final AtomicInteger remaining;
+        private volatile LazyPayload payload; //Discarded when the message is dropped
+
+        private Ticket(InboundBuffer buffer, MessageContext context, int size, int priority, int handlers) {
+            this.buffer = buffer;
+            this.context = context;
+            this.size = size;
+            this.priority = priority;
+            this.state = new AtomicInteger(QUEUED);
+            this.remaining = new AtomicInteger(handlers);
+        }
+
+        /**
+         * @return boolean Whether the handler may run, false when the message was dropped while it waited
+         */
+        boolean begin() {
+            return this.buffer == null || this.state.get() == STARTED
+                    || this.state.compareAndSet(QUEUED, STARTED) || this.state.get() == STARTED;
+        }
+
+        /**
+         * Called once per handler, after it ran or when it could not be scheduled
+         */
+        void end() {
+            if (this.buffer != null && this.remaining.decrementAndGet() == 0) {
+                this.buffer.release(this);
+            }
+        }
+
+        /**
+         * Keep the payload of the message, so dropping the message frees its bytes right away
+         */
+        void hold(LazyPayload payload) {
+            if (this.buffer == null) {
+                return;
+            }
+            this.payload = payload;
+            if (this.state.get() == CANCELLED) { //Dropped before the payload was set
+                discard();
+            }
+        }
+
+        boolean isQueued() {
+            return this.state.get() == QUEUED;
+        }
+
+        private boolean cancel() {
+            return this.state.compareAndSet(QUEUED, CANCELLED);
+        }
+
+        private void discard() {
+            LazyPayload payload = this.payload;
+            if (payload != null) {
+                this.payload = null;
+                payload.discard();
+            }
+        }
+    }
+}
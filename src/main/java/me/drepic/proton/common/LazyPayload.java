@@ -0,0 +1,238 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.blob.BlobStore;
+import me.drepic.proton.common.codec.TypedCodec;
+import me.drepic.proton.common.compression.PayloadCompressor;
+import me.drepic.proton.common.message.Priority;
+import me.drepic.proton.common.exception.MessageDecodeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A received message body which is only fetched, decompressed and decoded when a handler first asks for it.
+ * One instance is shared by every handler of the message, so the work happens at most once.
+ */
+class LazyPayload {
+
+    private final TypedCodec<Object> codec; //Null when no handler of the context takes a decoded body
+    private final PayloadCompressor compressor;
+    private final BlobStore blobStore; //Only needed for claim checks
+    private final byte flags;
+
+    private volatile byte[] data;
+    private volatile boolean fetched; //The claim check was already resolved by fetchAsync
+    private volatile boolean unpacked; //Fetched from the BlobStore and decompressed
+    private volatile Object body;
+    private volatile boolean decoded;
+    private volatile RuntimeException failure;
+    private final Queue<InputStream> streams; //One per streaming handler of a chunked transfer, otherwise null
+    private volatile InboundBuffer.Ticket ticket = InboundBuffer.Ticket.UNTRACKED;
+    private volatile Priority priority; //Set by the sender, otherwise null
+    private volatile boolean shared; //Read by more than one handler
+
+    LazyPayload(TypedCodec<Object> codec, PayloadCompressor compressor, BlobStore blobStore, byte flags, byte[] data) {
+        this(codec, compressor, blobStore, flags, data, null);
+    }
+
+    LazyPayload(TypedCodec<Object> codec, PayloadCompressor compressor, BlobStore blobStore, byte flags, byte[] data, Queue<InputStream> streams) {
+        this.codec = codec;
+        this.streams = streams;
+        this.compressor = compressor;
+        this.blobStore = blobStore;
+        this.flags = flags;
+        this.data = data;
+        this.unpacked = !MessageFlags.has(flags, MessageFlags.COMPRESSED) && !MessageFlags.has(flags, MessageFlags.CLAIM_CHECK);
+    }
+
+    void setTicket(InboundBuffer.Ticket ticket) {
+        this.ticket = ticket;
+        ticket.hold(this);
+    }
+
+    void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * @param handlerPriority The priority of the handler
+     * @return Priority The lane the handler runs in, the priority the message was sent with if any
+     */
+    Priority lane(Priority handlerPriority) {
+        Priority priority = this.priority;
+        return priority == null ? handlerPriority : priority;
+    }
+
+    /**
+     * Let go of the payload of a message that was dropped before any handler began. Its handlers may still be queued,
+     * but they never read it
+     */
+    void discard() {
+        synchronized (this) {
+            this.failure = new MessageDecodeException("The message was dropped from the inbound buffer");
+            this.data = null;
+            this.body = null;
+            this.unpacked = false;
+            this.decoded = false;
+            if (this.streams != null) {
+                this.streams.clear();
+            }
+        }
+    }
+
+    /**
+     * @return boolean Whether a handler may run, see {@link InboundBuffer.Ticket#begin()}
+     */
+    boolean begin() {
+        return this.ticket.begin();
+    }
+
+    /**
+     * Called once by every handler of the message, after it ran or when it could not be scheduled
+     */
+    void end() {
+        this.ticket.end();
+    }
+
+    /**
+     * @return byte[] The payload as it was encoded by the sender. Shared, must not be modified
+     */
+    byte[] bytes() {
+        if (!this.unpacked) {
+            synchronized (this) { //Every handler waits for the same fetch
+                if (!this.unpacked) {
+                    rethrowFailure();
+                    byte[] bytes = this.data;
+                    try {
+                        if (MessageFlags.has(this.flags, MessageFlags.CLAIM_CHECK) && !this.fetched) {
+                            bytes = fetch(bytes);
+                        }
+                        if (MessageFlags.has(this.flags, MessageFlags.COMPRESSED)) {
+                            bytes = this.compressor.decompress(bytes);
+                        }
+                    } catch (MessageDecodeException e) {
+                        this.failure = e;
+                        throw e;
+                    } catch (Exception e) {
+                        this.failure = new MessageDecodeException(e);
+                        throw this.failure;
+                    }
+                    this.data = bytes;
+                    this.unpacked = true;
+                }
+            }
+        }
+        return this.data;
+    }
+
+    private byte[] fetch(byte[] reference) throws IOException {
+        if (this.blobStore == null) {
+            throw new MessageDecodeException("Received a claim check but no BlobStore is set");
+        }
+        String key = new String(reference, StandardCharsets.UTF_8);
+        byte[] blob = this.blobStore.get(key);
+        if (blob == null) {
+            throw new MessageDecodeException(String.format("Claim check %s expired before it was read", key));
+        }
+        return blob;
+    }
+
+    /**
+     * Resolve a claim check without blocking, so a handler on the main thread never waits for the BlobStore.
+     * Failures are kept and thrown to the handlers like those of {@link LazyPayload#bytes()}
+     *
+     * @return CompletableFuture Completed once the payload is fetched or failed, never exceptionally
+     */
+    CompletableFuture<Void> fetchAsync() {
+        if (!MessageFlags.has(this.flags, MessageFlags.CLAIM_CHECK) || this.blobStore == null) {
+            return CompletableFuture.completedFuture(null); //bytes() reports a missing BlobStore
+        }
+        String key = new String(this.data, StandardCharsets.UTF_8);
+        return this.blobStore.getAsync(key).handle((blob, error) -> {
+            synchronized (this) {
+                if (this.failure != null) { //Dropped meanwhile
+                    return null;
+                }
+                if (error != null) {
+                    this.failure = new MessageDecodeException(error instanceof Exception ? (Exception) error : new IOException(error));
+                } else if (blob == null) {
+                    this.failure = new MessageDecodeException(String.format("Claim check %s expired before it was read", key));
+                } else {
+                    this.data = blob;
+                    this.fetched = true;
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return byte[] The payload for a byte[] handler to keep or modify, a copy when other handlers read it too
+     */
+    byte[] handlerBytes() {
+        byte[] bytes = bytes();
+        return this.shared ? bytes.clone() : bytes;
+    }
+
+    /**
+     * @return ByteBuffer A read-only view of {@link LazyPayload#bytes()}, without copying
+     */
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes()).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return InputStream The payload as a stream. For chunked transfers every call takes the stream of the next handler,
+     * which receives chunks as they arrive
+     */
+    InputStream stream() {
+        if (this.streams != null) {
+            InputStream stream = this.streams.poll();
+            if (stream != null) {
+                return stream;
+            }
+        }
+        return new ByteArrayInputStream(bytes());
+    }
+
+    /**
+     * @return Object The decoded body
+     * @throws MessageDecodeException When the body cannot be decoded, on every call
+     */
+    Object body() {
+        if (!this.decoded) {
+            synchronized (this) {
+                if (!this.decoded) {
+                    rethrowFailure();
+                    if (this.codec == null) {
+                        throw new MessageDecodeException("MessageContext has no data type to decode to");
+                    }
+                    byte[] bytes = bytes();
+                    try {
+                        this.body = this.codec.decode(bytes);
+                    } catch (Exception e) {
+                        this.failure = new MessageDecodeException(e);
+                        throw this.failure;
+                    }
+                    this.decoded = true;
+                }
+            }
+        }
+        return this.body;
+    }
+
+    private void rethrowFailure() {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.message.Priority;
+
+/**
+ * Bit flags sent with every message describing how the payload was transformed after encoding
+ */
+final class MessageFlags {
+
+    private static final int PRIORITY_SHIFT = 3; //Two bits, 0 when the sender set no priority, as older senders
+    private static final int PRIORITY_MASK = 0b11 << PRIORITY_SHIFT;
+
+    static final byte NONE = 0;
+    static final byte COMPRESSED = 1;
+    static final byte CHUNKED = 2; //The payload is one chunk of a transfer, see ChunkOutputStream
+    static final byte CLAIM_CHECK = 4; //The payload is the UTF-8 key of a blob in the BlobStore
+
+    private MessageFlags() {
+    }
+
+    static boolean has(byte flags, byte flag) {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * @param priority The priority, or null to leave it to the handlers
+     */
+    static byte withPriority(byte flags, Priority priority) {
+        int bits = priority == null ? 0 : priority.ordinal() + 1;
+        return (byte) ((flags & ~PRIORITY_MASK) | (bits << PRIORITY_SHIFT));
+    }
+
+    /**
+     * @return Priority The priority the message was sent with, or null when the sender set none
+     */
+    static Priority priority(byte flags) {
+        int bits = (flags & PRIORITY_MASK) >> PRIORITY_SHIFT;
+        return bits == 0 ? null : Priority.values()[bits - 1];
+    }
+}
@@ -1,8 +1,15 @@
 package me.drepic.proton.common;
 
 import me.drepic.proton.common.adapters.ConfigAdapter;
+import me.drepic.proton.common.adapters.ExecutorSchedulerAdapter;
+import me.drepic.proton.common.adapters.SchedulerAdapter;
+import me.drepic.proton.common.codec.MessageCodec;
+import me.drepic.proton.common.compression.PayloadCompressor;
+import me.drepic.proton.common.message.OverflowPolicy;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -11,6 +18,7 @@ public class Proton {
 
     private final ProtonBootstraper bootstrap;
     private ConfigAdapter config;
+    private SchedulerAdapter scheduler;
 
     public Proton(ProtonBootstraper bootstrap){
         this.bootstrap = bootstrap;
@@ -23,6 +31,8 @@ public class Proton {
 
         Logger logger = getBootstrap().getPluginLogger();
 
+        this.scheduler = setupScheduler();
+
         String clientName = this.config.getString("identification.clientName");
         if (clientName == null) {
             logger.log(Level.SEVERE, "The clientName must be set.");
@@ -61,6 +71,7 @@ public class Proton {
             manager = setupRedis(clientName, groups);
         }
 
+        configureManager(manager);
         ProtonProvider.register(manager);
 
         boolean checkForUpdates = config.getBoolean("checkForUpdates");
@@ -81,6 +92,35 @@ public class Proton {
             ProtonProvider.unregister();
         }catch(Exception ignored){
         }
+        if (this.scheduler instanceof ExecutorSchedulerAdapter) {
+            ((ExecutorSchedulerAdapter) this.scheduler).shutdown();
+        }
+    }
+
+    private SchedulerAdapter setupScheduler() {
+        String executor = this.config.getString("scheduler.asyncExecutor");
+        if (executor == null || executor.equalsIgnoreCase("platform")) {
+            return getBootstrap().getScheduler();
+        }
+
+        int maxThreads = Math.max(1, this.config.getInt("scheduler.maxThreads"));
+        int queueSize = this.config.getInt("scheduler.queueSize");
+        if (queueSize <= 0) {
+            queueSize = ExecutorSchedulerAdapter.DEFAULT_QUEUE_SIZE;
+        }
+        ExecutorSchedulerAdapter scheduler = new ExecutorSchedulerAdapter(getBootstrap().getScheduler(),
+                executor.equalsIgnoreCase("virtual"), maxThreads, queueSize);
+        if (executor.equalsIgnoreCase("virtual") && !scheduler.isVirtual()) {
+            getBootstrap().getPluginLogger().warning(String.format("Virtual threads need Java 21, using %d threads for async handlers instead.", maxThreads));
+        }
+        return scheduler;
+    }
+
+    /**
+     * @return SchedulerAdapter The scheduler MessageHandlers run on
+     */
+    public SchedulerAdapter getScheduler() {
+        return this.scheduler != null ? this.scheduler : getBootstrap().getScheduler();
     }
 
     private ProtonManager setupRabbitMQ(String clientName, String[] groups) throws IOException, TimeoutException {
@@ -89,13 +129,21 @@ public class Proton {
         int port = this.config.getInt("rabbitMQ.port");
         boolean useAuthorization = this.config.getBoolean("rabbitMQ.authorization.useAuthorization");
 
+        RabbitMQManager manager;
         if (!useAuthorization) {
-            return new RabbitMQManager(this, clientName, groups, host, virtualHost, port);
+            manager = new RabbitMQManager(this, clientName, groups, host, virtualHost, port);
         } else {
             String username = this.config.getString("rabbitMQ.authorization.username");
             String password = this.config.getString("rabbitMQ.authorization.password");
-            return new RabbitMQManager(this, clientName, groups, host, virtualHost, port, username, password);
+            manager = new RabbitMQManager(this, clientName, groups, host, virtualHost, port, username, password);
         }
+        manager.setBinarySenderID(this.config.getBoolean("rabbitMQ.binarySenderID"));
+        manager.setMulticastBindings(this.config.getBoolean("rabbitMQ.multicastBindings"));
+        int publishChannels = this.config.getInt("rabbitMQ.publishChannels");
+        if (publishChannels > 0) {
+            manager.setPublishChannels(publishChannels);
+        }
+        return manager;
     }
 
     private ProtonManager setupRedis(String clientName, String[] groups) {
@@ -103,11 +151,78 @@ public class Proton {
         int port = this.config.getInt("redis.port");
         boolean usePassword = this.config.getBoolean("redis.usePassword");
 
+        RedisManager manager;
         if (!usePassword) {
-            return new RedisManager(this, clientName, groups, host, port);
+            manager = new RedisManager(this, clientName, groups, host, port);
         } else {
             String password = this.config.getString("redis.password");
-            return new RedisManager(this, clientName, groups, host, port, password);
+            manager = new RedisManager(this, clientName, groups, host, port, password);
+        }
+        manager.setBinaryEnvelope(this.config.getBoolean("redis.binaryEnvelope"));
+        manager.setCompactIds(this.config.getBoolean("redis.compactIds"));
+        manager.setEnvelopeMetadata(this.config.getBoolean("redis.envelopeMetadata"));
+        int maxBatchSize = this.config.getInt("redis.batching.maxBatchSize");
+        if (maxBatchSize > 0) {
+            manager.setPublishBatching(maxBatchSize, this.config.getInt("redis.batching.lingerMicros"));
+        }
+        return manager;
+    }
+
+    private void configureManager(ProtonManager manager) {
+        Logger logger = getBootstrap().getPluginLogger();
+
+        String codecName = this.config.getString("serialization.codec");
+        if (codecName != null) {
+            MessageCodec codec = manager.getCodec(codecName);
+            if (codec == null) {
+                logger.warning(String.format("Unknown codec '%s', using the default.", codecName));
+            } else {
+                manager.setDefaultCodec(codec);
+            }
+        }
+        manager.setPrimitiveFastPath(this.config.getBoolean("serialization.primitiveFastPath"));
+
+        if (this.config.getBoolean("compression.enabled")) {
+            String dictionary = this.config.getString("compression.dictionary");
+            int level = this.config.getInt("compression.level");
+            int maxInflatedBytes = this.config.getInt("compression.maxInflatedBytes");
+            try {
+                manager.setCompressor(new PayloadCompressor(level,
+                        dictionary == null ? null : dictionary.getBytes(StandardCharsets.UTF_8),
+                        maxInflatedBytes > 0 ? maxInflatedBytes : PayloadCompressor.DEFAULT_MAX_INFLATED_BYTES));
+                manager.setCompressionThreshold(this.config.getInt("compression.threshold"));
+            } catch (IllegalArgumentException e) {
+                logger.warning(String.format("Invalid compression settings: %s", e.getMessage()));
+            }
+        }
+
+        int claimCheckThreshold = this.config.getInt("claimCheck.threshold");
+        if (claimCheckThreshold > 0) { //Only takes effect with a BlobStore, which redis sets up
+            manager.setClaimCheck(claimCheckThreshold, this.config.getInt("claimCheck.ttlSeconds") * 1000L);
+        }
+
+        int syncBudget = this.config.getInt("dispatch.syncBudgetMillis");
+        if (syncBudget > 0) {
+            manager.setSyncBudget(syncBudget, this.config.getInt("dispatch.backlogWarning"));
+        }
+
+        int maxInboundMessages = this.config.getInt("inbound.maxMessages");
+        int maxInboundBytes = this.config.getInt("inbound.maxBytes");
+        if (maxInboundMessages > 0 || maxInboundBytes > 0) { //Older configs don't have the section, stay unbounded
+            String policy = this.config.getString("inbound.overflowPolicy");
+            try {
+                manager.setOverflowPolicy(OverflowPolicy.valueOf(policy.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                logger.warning(String.format("Unknown overflow policy '%s', using drop_newest.", policy));
+            }
+            manager.setInboundLimits(maxInboundMessages > 0 ? maxInboundMessages : -1, maxInboundBytes > 0 ? maxInboundBytes : -1,
+                    this.config.getInt("inbound.blockTimeoutMillis"));
+        }
+
+        int chunkSize = this.config.getInt("chunking.chunkSize");
+        if (chunkSize > 0) { //Older configs don't have the section, keep the defaults
+            manager.setChunking(chunkSize, this.config.getInt("chunking.timeoutSeconds") * 1000L,
+                    this.config.getInt("chunking.maxTransferBytes"));
         }
     }
 
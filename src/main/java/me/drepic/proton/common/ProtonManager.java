@@ -1,24 +1,46 @@
 package me.drepic.proton.common;
 
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Multimaps;
 import com.google.gson.Gson;
+import me.drepic.proton.common.adapters.ExecutorSchedulerAdapter;
 import me.drepic.proton.common.adapters.SchedulerAdapter;
+import me.drepic.proton.common.adapters.TaskHandle;
+import me.drepic.proton.common.blob.BlobStore;
+import me.drepic.proton.common.codec.BinaryCodec;
+import me.drepic.proton.common.codec.GsonCodec;
+import me.drepic.proton.common.codec.MessageCodec;
+import me.drepic.proton.common.codec.PrimitiveCodec;
+import me.drepic.proton.common.codec.RawCodec;
+import me.drepic.proton.common.codec.TypedCodec;
+import me.drepic.proton.common.compression.PayloadCompressor;
 import me.drepic.proton.common.exception.MessageSendException;
 import me.drepic.proton.common.exception.RegisterMessageHandlerException;
+import me.drepic.proton.common.message.Conflation;
+import me.drepic.proton.common.message.KeyedMessage;
 import me.drepic.proton.common.message.MessageAttributes;
 import me.drepic.proton.common.message.MessageContext;
 import me.drepic.proton.common.message.MessageHandler;
+import me.drepic.proton.common.message.MessageHandlerTable;
+import me.drepic.proton.common.message.OrderBy;
+import me.drepic.proton.common.message.OverflowPolicy;
+import me.drepic.proton.common.message.Priority;
 import org.bukkit.plugin.Plugin;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -28,15 +50,52 @@ import java.util.logging.Logger;
  * @author Drepic
  */
 public abstract class ProtonManager {
+    private static final ClassValue<MessageHandlerTable> HANDLER_TABLES = new ClassValue<MessageHandlerTable>() {
+        @Override
+        protected MessageHandlerTable computeValue(Class<?> klass) { //Null when the class was not compiled with the annotation processor
+            try {
+                Class<?> tableClass = Class.forName(klass.getName() + MessageHandlerTable.SUFFIX, true, klass.getClassLoader());
+                return (MessageHandlerTable) tableClass.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+                return null;
+            }
+        }
+    };
+
     protected final String name; //The name of this client
     protected final String[] groups; //The groups the client belongs to
     protected final UUID id; //Guaranteed unique, used to prevent broadcast to self
 
-    protected final ConcurrentHashMap<MessageContext, Class<?>> contextClassMap;
+    protected final ConcurrentHashMap<MessageContext, ContextEntry> contexts; //The contexts we handle, one lookup per delivery
     protected final Map<Class<?>, Class<?>> primitiveMapping;
-    protected final ListMultimap<MessageContext, BiConsumer<Object, MessageAttributes>> messageHandlers;
 
     protected final Gson gson;
+    protected final MessageCodec[] codecs; //Indexed by codec id
+    protected final ConcurrentHashMap<MessageContext, MessageCodec> contextCodecs;
+    protected final ConcurrentHashMap<MessageContext, ContextCodecs> typedCodecs; //Cached per data type for contexts we only send
+    protected volatile MessageCodec defaultCodec;
+    protected final MessageCodec primitiveCodec;
+    protected volatile boolean primitiveFastPath;
+
+    protected final Set<MessageContext> compressedContexts;
+    protected volatile PayloadCompressor compressor;
+    protected volatile int compressionThreshold; //Compress every payload of at least this many bytes, -1 to disable
+
+    protected volatile BlobStore blobStore;
+    protected volatile int claimCheckThreshold; //Store payloads of at least this many bytes in the blobStore, -1 to disable
+    protected volatile long claimCheckTtlMillis;
+
+    protected final ChunkAssembler chunkAssembler;
+    protected final AtomicLong transferIDs;
+    protected volatile int chunkSize;
+    protected volatile long chunkTimeoutMillis;
+    protected volatile int maxChunkedTransferSize;
+
+    protected final SyncDispatcher syncDispatcher;
+    protected final StripedExecutor orderedExecutor; //For async handlers with an OrderBy
+    protected final InboundBuffer inboundBuffer;
+    protected final AtomicLong conflatedMessages;
+    protected final List<TaskHandle> tasks;
 
     protected final SchedulerAdapter scheduler;
     protected final Logger logger;
@@ -47,8 +106,7 @@ public abstract class ProtonManager {
         this.name = name;
         this.groups = groups;
         this.id = UUID.randomUUID();
-        this.contextClassMap = new ConcurrentHashMap<>();
-        this.messageHandlers = Multimaps.synchronizedListMultimap(ArrayListMultimap.create()); //Thread-safe update operations
+        this.contexts = new ConcurrentHashMap<>();
         this.primitiveMapping = ImmutableMap.<Class<?>, Class<?>>builder()
                 .put(Byte.TYPE, Byte.class)
                 .put(Short.TYPE, Short.class)
@@ -60,10 +118,42 @@ public abstract class ProtonManager {
                 .put(Character.TYPE, Character.class).build();
 
         gson = new Gson();
+        this.codecs = new MessageCodec[256];
+        this.contextCodecs = new ConcurrentHashMap<>();
+        this.typedCodecs = new ConcurrentHashMap<>();
+        this.defaultCodec = new GsonCodec(gson);
+        registerCodec(this.defaultCodec);
+        registerCodec(new BinaryCodec(gson));
+        registerCodec(new RawCodec());
+        this.primitiveCodec = new PrimitiveCodec();
+        registerCodec(this.primitiveCodec);
+
+        this.compressedContexts = ConcurrentHashMap.newKeySet();
+        this.compressor = new PayloadCompressor(6, null);
+        this.compressionThreshold = -1;
+
+        this.claimCheckThreshold = -1;
+        this.claimCheckTtlMillis = 60_000;
+
+        this.chunkAssembler = new ChunkAssembler(this);
+        this.transferIDs = new AtomicLong();
+        this.chunkSize = 256 * 1024;
+        this.chunkTimeoutMillis = 30_000;
+        this.maxChunkedTransferSize = 64 * 1024 * 1024;
+
+        this.syncDispatcher = new SyncDispatcher(logger);
+        this.orderedExecutor = new StripedExecutor(scheduler, logger, Runtime.getRuntime().availableProcessors(),
+                scheduler instanceof ExecutorSchedulerAdapter ? ((ExecutorSchedulerAdapter) scheduler).getQueueSize() : ExecutorSchedulerAdapter.DEFAULT_QUEUE_SIZE);
+        this.inboundBuffer = new InboundBuffer();
+        this.conflatedMessages = new AtomicLong();
+
+        this.tasks = new CopyOnWriteArrayList<>();
+        this.tasks.add(scheduler.runTaskTimer(this.syncDispatcher, 50, 50));
+        this.tasks.add(scheduler.runTaskTimerAsynchronously(this.chunkAssembler::expire, 5_000, 5_000));
     }
 
     protected ProtonManager(Proton proton, String name, String[] groups) {
-        this(proton.getBootstrap().getScheduler(), proton.getBootstrap().getPluginLogger(), name, groups);
+        this(proton.getScheduler(), proton.getBootstrap().getPluginLogger(), name, groups);
     }
 
     /**
@@ -95,27 +185,122 @@ public abstract class ProtonManager {
      * @throws MessageSendException     When unable to send the message
      */
     public void send(String namespace, String subject, Object data, String recipient) {
-        if (recipient == null || recipient.isEmpty()) {
-            throw new IllegalArgumentException("Recipient cannot be null or empty");
-        }
+        send(namespace, subject, data, recipient, null);
+    }
 
-        if (namespace.contains("\\.") || subject.contains("\\.")) {
-            throw new IllegalArgumentException("MessageContext cannot contain `.`");
-        }
+    /**
+     * Send a message to a specific client with a given priority. Recipients handle it in the lane of that priority
+     * instead of the lane of the handler. On RabbitMQ it is also delivered before messages of lower priorities waiting in the queue.
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send. It must be JSON serializable
+     * @param recipient The client name or group for the recipient(s) of the message.
+     * @param priority  The priority of the message, or null to use the priority of the handlers
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When trying to send to an empty or null recipient
+     * @throws MessageSendException     When unable to send the message
+     * @see ProtonManager#send
+     */
+    public void send(String namespace, String subject, Object data, String recipient, Priority priority) {
+        send(namespace, subject, data, recipient, priority, Collections.emptyMap());
+    }
 
-        if (recipient.contains("\\.")) {
-            throw new IllegalArgumentException("Recipient cannot contain `.`");
+    /**
+     * Send a message to a specific client with headers, which recipients can filter on before decoding the message
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send. It must be JSON serializable
+     * @param recipient The client name or group for the recipient(s) of the message.
+     * @param priority  The priority of the message, or null to use the priority of the handlers
+     * @param headers   The headers, available from {@link MessageAttributes#getHeaders()}
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When trying to send to an empty or null recipient
+     * @throws IllegalArgumentException When a header name is empty
+     * @throws MessageSendException     When unable to send the message
+     * @see me.drepic.proton.common.message.MessageFilter
+     */
+    public void send(String namespace, String subject, Object data, String recipient, Priority priority, Map<String, String> headers) {
+        validateRecipient(recipient);
+        validateHeaders(headers);
+        MessageContext context = validateSend(namespace, subject, data);
+        try {
+            EncodedPayload payload = encodePayload(context, data);
+            this.sendData(this.name, this.id, recipient, context, payload.codec, MessageFlags.withPriority(payload.flags, priority), withKey(data, headers), payload.data);
+        } catch (Exception e) {
+            throw new MessageSendException(e);
         }
+    }
 
-        MessageContext context = new MessageContext(namespace, subject);
-        if (this.contextClassMap.containsKey(context) &&
-                !data.getClass().equals(this.contextClassMap.get(context))) {
-            throw new IllegalArgumentException("Trying to send the wrong datatype for an already defined MessageContext");
-        }
+    /**
+     * Send a message to several clients or groups at once. The data is encoded once however many recipients there are,
+     * on RabbitMQ it is published once and on Redis the publishes are pipelined.
+     * <br><b>NOTE: </b>A client reached through more than one of the recipients, like its name and one of its groups,
+     * receives the message once on RabbitMQ but once per recipient on Redis. On RabbitMQ the message is only published
+     * once with multicast bindings, see {@link RabbitMQManager#setMulticastBindings}, otherwise once per recipient.
+     *
+     * @param namespace  This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject    Set this to further define what your message is doing.
+     * @param data       This is the data you want to send. It must be JSON serializable
+     * @param recipients The client names or groups for the recipients of the message, duplicates are sent to once
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When there are no recipients, or one is empty or null
+     * @throws MessageSendException     When unable to send the message
+     * @see ProtonManager#send
+     */
+    public void send(String namespace, String subject, Object data, Collection<String> recipients) {
+        send(namespace, subject, data, recipients, null);
+    }
+
+    /**
+     * Send a message to several clients or groups at once with a given priority
+     *
+     * @param namespace  This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject    Set this to further define what your message is doing.
+     * @param data       This is the data you want to send. It must be JSON serializable
+     * @param recipients The client names or groups for the recipients of the message, duplicates are sent to once
+     * @param priority   The priority of the message, or null to use the priority of the handlers
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When there are no recipients, or one is empty or null
+     * @throws MessageSendException     When unable to send the message
+     * @see ProtonManager#send(String, String, Object, Collection)
+     */
+    public void send(String namespace, String subject, Object data, Collection<String> recipients, Priority priority) {
+        send(namespace, subject, data, recipients, priority, Collections.emptyMap());
+    }
 
+    /**
+     * Send a message to several clients or groups at once with headers, which recipients can filter on before decoding the message
+     *
+     * @param namespace  This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject    Set this to further define what your message is doing.
+     * @param data       This is the data you want to send. It must be JSON serializable
+     * @param recipients The client names or groups for the recipients of the message, duplicates are sent to once
+     * @param priority   The priority of the message, or null to use the priority of the handlers
+     * @param headers    The headers, available from {@link MessageAttributes#getHeaders()}
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When there are no recipients, or one is empty or null
+     * @throws IllegalArgumentException When a header name is empty
+     * @throws MessageSendException     When unable to send the message
+     * @see ProtonManager#send(String, String, Object, Collection)
+     */
+    public void send(String namespace, String subject, Object data, Collection<String> recipients, Priority priority, Map<String, String> headers) {
+        if (recipients == null || recipients.isEmpty()) {
+            throw new IllegalArgumentException("Recipients cannot be null or empty");
+        }
+        Set<String> distinctRecipients = new LinkedHashSet<>(recipients);
+        distinctRecipients.forEach(this::validateRecipient);
+        validateHeaders(headers);
+        MessageContext context = validateSend(namespace, subject, data);
         try {
-            byte[] bytes = gson.toJson(data).getBytes(StandardCharsets.UTF_8);
-            this.sendData(this.name, this.id, recipient, context, bytes);
+            EncodedPayload payload = encodePayload(context, data);
+            byte flags = MessageFlags.withPriority(payload.flags, priority);
+            if (distinctRecipients.size() == 1) {
+                this.sendData(this.name, this.id, distinctRecipients.iterator().next(), context, payload.codec, flags, withKey(data, headers), payload.data);
+            } else {
+                this.multicastData(this.name, this.id, distinctRecipients, context, payload.codec, flags, withKey(data, headers), payload.data);
+            }
         } catch (Exception e) {
             throw new MessageSendException(e);
         }
@@ -132,23 +317,575 @@ public abstract class ProtonManager {
      * @see ProtonManager#send
      */
     public void broadcast(String namespace, String subject, Object data) {
+        broadcast(namespace, subject, data, null);
+    }
+
+    /**
+     * Broadcast data to all clients with a given priority
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send. It must be JSON serializable
+     * @param priority  The priority of the message, or null to use the priority of the handlers
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws MessageSendException     When unable to send the message
+     * @see ProtonManager#send(String, String, Object, String, Priority)
+     */
+    public void broadcast(String namespace, String subject, Object data, Priority priority) {
+        broadcast(namespace, subject, data, priority, Collections.emptyMap());
+    }
+
+    /**
+     * Broadcast data to all clients with headers, which recipients can filter on before decoding the message
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send. It must be JSON serializable
+     * @param priority  The priority of the message, or null to use the priority of the handlers
+     * @param headers   The headers, available from {@link MessageAttributes#getHeaders()}
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When a header name is empty
+     * @throws MessageSendException     When unable to send the message
+     * @see ProtonManager#send(String, String, Object, String, Priority, Map)
+     */
+    public void broadcast(String namespace, String subject, Object data, Priority priority, Map<String, String> headers) {
+        validateHeaders(headers);
+        MessageContext context = validateSend(namespace, subject, data);
+        try {
+            EncodedPayload payload = encodePayload(context, data);
+            this.broadcastData(this.name, this.id, context, payload.codec, MessageFlags.withPriority(payload.flags, priority), withKey(data, headers), payload.data);
+        } catch (Exception e) {
+            throw new MessageSendException(e);
+        }
+    }
+
+    /**
+     * Send a message without waiting for the broker. The returned future completes once the broker accepted the message,
+     * so many messages can be in flight at once. On RabbitMQ it uses publisher confirms, on Redis the publish reply.
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send. It must be JSON serializable
+     * @param recipient The client name or group for the recipient(s) of the message.
+     * @return CompletableFuture Completes when the message was accepted, or exceptionally with a {@link MessageSendException}
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When trying to send to an empty or null recipient
+     * @see ProtonManager#send
+     */
+    public CompletableFuture<Void> sendAsync(String namespace, String subject, Object data, String recipient) {
+        return sendAsync(namespace, subject, data, recipient, null, Collections.emptyMap());
+    }
+
+    /**
+     * Send a message with a priority and headers without waiting for the broker
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send. It must be JSON serializable
+     * @param recipient The client name or group for the recipient(s) of the message.
+     * @param priority  The priority of the message, or null to use the priority of the handlers
+     * @param headers   The headers, available from {@link MessageAttributes#getHeaders()}
+     * @return CompletableFuture Completes when the message was accepted, or exceptionally with a {@link MessageSendException}
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When trying to send to an empty or null recipient
+     * @throws IllegalArgumentException When a header name is empty
+     * @see ProtonManager#sendAsync(String, String, Object, String)
+     */
+    public CompletableFuture<Void> sendAsync(String namespace, String subject, Object data, String recipient, Priority priority, Map<String, String> headers) {
+        validateRecipient(recipient);
+        validateHeaders(headers);
+        MessageContext context = validateSend(namespace, subject, data);
+        try {
+            EncodedPayload payload = encodePayload(context, data);
+            return this.sendDataAsync(this.name, this.id, recipient, context, payload.codec, MessageFlags.withPriority(payload.flags, priority), withKey(data, headers), payload.data);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new MessageSendException(e));
+        }
+    }
+
+    /**
+     * Broadcast data to all clients without waiting for the broker
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send. It must be JSON serializable
+     * @return CompletableFuture Completes when the message was accepted, or exceptionally with a {@link MessageSendException}
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @see ProtonManager#sendAsync(String, String, Object, String)
+     */
+    public CompletableFuture<Void> broadcastAsync(String namespace, String subject, Object data) {
+        return broadcastAsync(namespace, subject, data, null, Collections.emptyMap());
+    }
+
+    /**
+     * Broadcast data to all clients with a priority and headers without waiting for the broker
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send. It must be JSON serializable
+     * @param priority  The priority of the message, or null to use the priority of the handlers
+     * @param headers   The headers, available from {@link MessageAttributes#getHeaders()}
+     * @return CompletableFuture Completes when the message was accepted, or exceptionally with a {@link MessageSendException}
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When a header name is empty
+     * @see ProtonManager#sendAsync(String, String, Object, String, Priority, Map)
+     */
+    public CompletableFuture<Void> broadcastAsync(String namespace, String subject, Object data, Priority priority, Map<String, String> headers) {
+        validateHeaders(headers);
+        MessageContext context = validateSend(namespace, subject, data);
+        try {
+            EncodedPayload payload = encodePayload(context, data);
+            return this.broadcastDataAsync(this.name, this.id, context, payload.codec, MessageFlags.withPriority(payload.flags, priority), withKey(data, headers), payload.data);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new MessageSendException(e));
+        }
+    }
+
+    /**
+     * Send bytes which are already encoded, for example by your own binary format. They are handed to the broker as they are,
+     * a heap buffer covering its whole backing array is not copied. The buffer must not be modified until this returns.
+     * <br>Receive them with a MessageHandler taking a byte[] or ByteBuffer.
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      The bytes between the position and limit of the buffer are sent
+     * @param recipient The client name or group for the recipient(s) of the message.
+     * @throws IllegalArgumentException When trying to send to an empty or null recipient
+     * @throws MessageSendException     When unable to send the message
+     * @see ProtonManager#send
+     */
+    public void sendRaw(String namespace, String subject, ByteBuffer data, String recipient) {
+        validateRecipient(recipient);
+        MessageContext context = validateContext(namespace, subject);
+        try {
+            EncodedPayload payload = packPayload(context, RawCodec.ID, RawCodec.toArray(data));
+            this.sendData(this.name, this.id, recipient, context, payload.codec, payload.flags, Collections.emptyMap(), payload.data);
+        } catch (Exception e) {
+            throw new MessageSendException(e);
+        }
+    }
+
+    /**
+     * Broadcast bytes which are already encoded to all clients
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      The bytes between the position and limit of the buffer are sent
+     * @throws MessageSendException When unable to send the message
+     * @see ProtonManager#sendRaw
+     */
+    public void broadcastRaw(String namespace, String subject, ByteBuffer data) {
+        MessageContext context = validateContext(namespace, subject);
+        try {
+            EncodedPayload payload = packPayload(context, RawCodec.ID, RawCodec.toArray(data));
+            this.broadcastData(this.name, this.id, context, payload.codec, payload.flags, Collections.emptyMap(), payload.data);
+        } catch (Exception e) {
+            throw new MessageSendException(e);
+        }
+    }
+
+    /**
+     * Send a message which may be too large for a single broker message. The data is encoded straight into chunks
+     * of the configured size, which are sent as soon as they are full and reassembled by the recipient.
+     * <br>MessageHandlers taking an {@link InputStream} start reading with the first chunk, all other handlers receive
+     * the data once the last chunk arrived. A streaming handler which falls 16 chunks behind fails the transfer.
+     * <br><b>NOTE: </b>This blocks until every chunk has been handed to the broker. Chunks are never compressed.
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send
+     * @param recipient The client name or group for the recipient(s) of the message.
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws IllegalArgumentException When trying to send to an empty or null recipient
+     * @throws MessageSendException     When unable to send the message
+     * @see ProtonManager#send
+     */
+    public void sendChunked(String namespace, String subject, Object data, String recipient) {
+        validateRecipient(recipient);
+        MessageContext context = validateSend(namespace, subject, data);
+        MessageCodec codec = getCodec(context, data.getClass());
+        Map<String, String> headers = withKey(data, Collections.emptyMap());
+        encodeChunked(context, codec, data, chunk -> this.sendData(this.name, this.id, recipient, context, codec.getId(), MessageFlags.CHUNKED, headers, chunk));
+    }
+
+    /**
+     * Broadcast a message which may be too large for a single broker message
+     *
+     * @param namespace This is the namespace of the message, usually you want to set this to your plugin name or organization
+     * @param subject   Set this to further define what your message is doing.
+     * @param data      This is the data you want to send
+     * @throws IllegalArgumentException When trying to send the wrong datatype given a defined {@link MessageContext}
+     * @throws MessageSendException     When unable to send the message
+     * @see ProtonManager#sendChunked
+     */
+    public void broadcastChunked(String namespace, String subject, Object data) {
+        MessageContext context = validateSend(namespace, subject, data);
+        MessageCodec codec = getCodec(context, data.getClass());
+        Map<String, String> headers = withKey(data, Collections.emptyMap());
+        encodeChunked(context, codec, data, chunk -> this.broadcastData(this.name, this.id, context, codec.getId(), MessageFlags.CHUNKED, headers, chunk));
+    }
+
+    /**
+     * Configure chunked transfers
+     *
+     * @param chunkSize        The payload size of each chunk in bytes
+     * @param timeoutMillis    How long a receiver waits for the next chunk before dropping the transfer
+     * @param maxTransferBytes The largest transfer a receiver accepts, larger transfers are dropped
+     */
+    public void setChunking(int chunkSize, long timeoutMillis, int maxTransferBytes) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.chunkTimeoutMillis = timeoutMillis;
+        this.maxChunkedTransferSize = maxTransferBytes;
+    }
+
+    /**
+     * Limit how long synchronous MessageHandlers may run on the main thread each tick. Handlers which don't fit
+     * run on the next tick, in the order their messages arrived.
+     *
+     * @param budgetMillis   The time per tick, at least one handler always runs
+     * @param backlogWarning Log a warning when at least this many handlers are still waiting after a tick
+     */
+    public void setSyncBudget(long budgetMillis, int backlogWarning) {
+        this.syncDispatcher.setBudget(budgetMillis, backlogWarning);
+    }
+
+    /**
+     * @return int The number of async MessageHandler calls waiting for a thread, or -1 when the platform scheduler runs them
+     * @see ExecutorSchedulerAdapter
+     */
+    public int getAsyncQueued() {
+        return this.scheduler instanceof ExecutorSchedulerAdapter ? ((ExecutorSchedulerAdapter) this.scheduler).getQueued() : -1;
+    }
+
+    /**
+     * @return int The number of async MessageHandler calls running, or -1 when the platform scheduler runs them
+     * @see ExecutorSchedulerAdapter
+     */
+    public int getAsyncInFlight() {
+        return this.scheduler instanceof ExecutorSchedulerAdapter ? ((ExecutorSchedulerAdapter) this.scheduler).getInFlight() : -1;
+    }
+
+    /**
+     * @return long The number of async MessageHandler calls dropped because the executor or, for handlers with an OrderBy,
+     * their stripe was full. Only ordered calls are bounded when the platform scheduler runs them
+     * @see ExecutorSchedulerAdapter
+     */
+    public long getAsyncRejected() {
+        long rejected = this.orderedExecutor.getRejected();
+        return this.scheduler instanceof ExecutorSchedulerAdapter ? ((ExecutorSchedulerAdapter) this.scheduler).getRejected() + rejected : rejected;
+    }
+
+    /**
+     * @return int The number of synchronous MessageHandler calls waiting for the main thread
+     */
+    public int getSyncBacklog() {
+        return this.syncDispatcher.getBacklog();
+    }
+
+    /**
+     * Bound the messages which were received but not yet handled. A message counts until its last MessageHandler returned.
+     * When a message does not fit, the {@link OverflowPolicy} of its context decides what is dropped.
+     * <br><b>NOTE: </b>{@link OverflowPolicy#BLOCK} stops this client from reading any message, not just the ones of the full context.
+     *
+     * @param maxMessages        The number of messages, -1 for no limit
+     * @param maxBytes           The size of the messages as received, -1 for no limit
+     * @param blockTimeoutMillis How long {@link OverflowPolicy#BLOCK} waits for room before dropping the message
+     */
+    public void setInboundLimits(int maxMessages, long maxBytes, long blockTimeoutMillis) {
+        this.inboundBuffer.setLimits(maxMessages, maxBytes, blockTimeoutMillis);
+    }
+
+    /**
+     * Set the {@link OverflowPolicy} of every {@link MessageContext} without its own
+     *
+     * @param policy The policy, {@link OverflowPolicy#DROP_NEWEST} unless set
+     */
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        this.inboundBuffer.setDefaultPolicy(policy);
+    }
+
+    /**
+     * Set what happens to messages with the given namespace and subject when the inbound buffer is full
+     *
+     * @param namespace The namespace of the {@link MessageContext}
+     * @param subject   The subject of the {@link MessageContext}
+     * @param policy    The policy, or null to use the default
+     */
+    public void setOverflowPolicy(String namespace, String subject, OverflowPolicy policy) {
+        this.inboundBuffer.setPolicy(new MessageContext(namespace, subject), policy);
+    }
+
+    /**
+     * Set the priority of received messages with the given namespace and subject, used by {@link OverflowPolicy#SHED_PRIORITY}.
+     * Unless set, it is the ordinal of the {@link Priority} the message was sent with, or else of the highest handler of the context.
+     *
+     * @param namespace The namespace of the {@link MessageContext}
+     * @param subject   The subject of the {@link MessageContext}
+     * @param priority  Higher priorities are kept over lower ones
+     */
+    public void setInboundPriority(String namespace, String subject, int priority) {
+        this.inboundBuffer.setPriority(new MessageContext(namespace, subject), priority);
+    }
+
+    /**
+     * @return int The number of received messages whose MessageHandlers have not all finished
+     */
+    public int getInboundMessages() {
+        return this.inboundBuffer.getMessages();
+    }
+
+    /**
+     * @return long The size in bytes of the received messages whose MessageHandlers have not all finished
+     */
+    public long getInboundBytes() {
+        return this.inboundBuffer.getBytes();
+    }
+
+    /**
+     * @return long The number of received messages replaced by a newer one before a conflating MessageHandler ran
+     * @see Conflation
+     */
+    public long getConflatedMessages() {
+        return this.conflatedMessages.get();
+    }
+
+    /**
+     * @return long The number of received messages dropped because the inbound buffer was full
+     */
+    public long getDroppedMessages() {
+        return this.inboundBuffer.getDropped();
+    }
+
+    /**
+     * @param namespace The namespace of the {@link MessageContext}
+     * @param subject   The subject of the {@link MessageContext}
+     * @return long The number of received messages with the given namespace and subject dropped because the inbound buffer was full
+     */
+    public long getDroppedMessages(String namespace, String subject) {
+        return this.inboundBuffer.getDropped(new MessageContext(namespace, subject));
+    }
+
+    private void validateRecipient(String recipient) {
+        if (recipient == null || recipient.isEmpty()) {
+            throw new IllegalArgumentException("Recipient cannot be null or empty");
+        }
+
+        if (recipient.contains("\\.")) {
+            throw new IllegalArgumentException("Recipient cannot contain `.`");
+        }
+    }
+
+    private void validateHeaders(Map<String, String> headers) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey() == null || header.getKey().isEmpty() || header.getValue() == null) {
+                throw new IllegalArgumentException("Header names cannot be empty and values cannot be null");
+            }
+        }
+    }
+
+    private MessageContext validateContext(String namespace, String subject) {
         if (namespace.contains("\\.") || subject.contains("\\.")) {
             throw new IllegalArgumentException("MessageContext cannot contain `.`");
         }
-        MessageContext context = new MessageContext(namespace, subject);
-        if (this.contextClassMap.containsKey(context) &&
-                !data.getClass().equals(this.contextClassMap.get(context))) {
+        return new MessageContext(namespace, subject);
+    }
+
+    private MessageContext validateSend(String namespace, String subject, Object data) {
+        MessageContext context = validateContext(namespace, subject);
+        ContextEntry entry = this.contexts.get(context);
+        if (entry != null && entry.type != null && !data.getClass().equals(entry.type)) {
             throw new IllegalArgumentException("Trying to send the wrong datatype for an already defined MessageContext");
         }
+        return context;
+    }
 
+    private void encodeChunked(MessageContext context, MessageCodec codec, Object data, ChunkOutputStream.ChunkSender sender) {
         try {
-            byte[] bytes = gson.toJson(data).getBytes(StandardCharsets.UTF_8);
-            this.broadcastData(this.name, this.id, context, bytes);
+            ChunkOutputStream out = new ChunkOutputStream(sender, this.transferIDs.getAndIncrement(), this.chunkSize);
+            getTypedCodecs(context, data.getClass()).get(codec).encode(data, out);
+            out.close(); //Only mark the transfer complete when encoding succeeded, otherwise receivers let it time out
         } catch (Exception e) {
             throw new MessageSendException(e);
         }
     }
 
+    /**
+     * Make a codec available to this client. Codecs must be registered on every client which receives messages encoded with them.
+     *
+     * @param codec The codec to register
+     * @throws IllegalArgumentException When a different codec is already registered with the same id
+     */
+    public void registerCodec(MessageCodec codec) {
+        int index = codec.getId() & 0xFF;
+        synchronized (this.codecs) {
+            if (this.codecs[index] != null && this.codecs[index] != codec) {
+                throw new IllegalArgumentException(String.format("Codec id %d is already used by '%s'", codec.getId(), this.codecs[index].getName()));
+            }
+            this.codecs[index] = codec;
+        }
+    }
+
+    /**
+     * @param name The name of a registered codec
+     * @return MessageCodec The codec with the given name, or null if no such codec is registered
+     */
+    public MessageCodec getCodec(String name) {
+        for (MessageCodec codec : this.codecs) {
+            if (codec != null && codec.getName().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set the codec used to encode messages for every {@link MessageContext} without its own codec.
+     * Receivers always decode with the codec the message was sent with.
+     *
+     * @param codec The codec to use, it is registered if it is not already
+     */
+    public void setDefaultCodec(MessageCodec codec) {
+        registerCodec(codec);
+        this.defaultCodec = codec;
+    }
+
+    /**
+     * Set the codec used to encode messages sent with the given namespace and subject
+     *
+     * @param namespace The namespace of the {@link MessageContext}
+     * @param subject   The subject of the {@link MessageContext}
+     * @param codec     The codec to use, it is registered if it is not already
+     */
+    public void setCodec(String namespace, String subject, MessageCodec codec) {
+        registerCodec(codec);
+        this.contextCodecs.put(new MessageContext(namespace, subject), codec);
+    }
+
+    /**
+     * Send single primitive wrappers, Strings and UUIDs with the primitive codec instead of the default codec,
+     * unless their {@link MessageContext} has its own codec.
+     * <br><b>NOTE: </b>Only enable this once every client supports the primitive codec.
+     *
+     * @param enabled Whether to use the fast path
+     */
+    public void setPrimitiveFastPath(boolean enabled) {
+        this.primitiveFastPath = enabled;
+    }
+
+    protected MessageCodec getCodec(MessageContext context, Class<?> type) {
+        MessageCodec codec = this.contextCodecs.get(context);
+        if (codec != null) {
+            return codec;
+        }
+        if (this.primitiveFastPath && PrimitiveCodec.supports(type)) {
+            return this.primitiveCodec;
+        }
+        return this.defaultCodec;
+    }
+
+    /**
+     * Always compress messages sent with the given namespace and subject, regardless of size
+     *
+     * @param namespace The namespace of the {@link MessageContext}
+     * @param subject   The subject of the {@link MessageContext}
+     * @param compress  Whether to compress
+     */
+    public void setCompression(String namespace, String subject, boolean compress) {
+        MessageContext context = new MessageContext(namespace, subject);
+        if (compress) {
+            this.compressedContexts.add(context);
+        } else {
+            this.compressedContexts.remove(context);
+        }
+    }
+
+    /**
+     * Compress every message whose encoded payload is at least the given size.
+     * Payloads are only sent compressed when that makes them smaller.
+     *
+     * @param threshold The size in bytes, or -1 to only compress the contexts set with {@link ProtonManager#setCompression}
+     */
+    public void setCompressionThreshold(int threshold) {
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * Replace the compressor, for example to use a pre-shared dictionary.
+     * <br><b>NOTE: </b>Every client must use the same dictionary.
+     *
+     * @param compressor The compressor used for sending and receiving
+     */
+    public void setCompressor(PayloadCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    private EncodedPayload encodePayload(MessageContext context, Object data) throws IOException {
+        MessageCodec codec = getCodec(context, data.getClass());
+        byte[] bytes = getTypedCodecs(context, data.getClass()).get(codec).encode(data);
+        return packPayload(context, codec.getId(), bytes);
+    }
+
+    /**
+     * Set where claim checks are stored and fetched from. Every client receiving claim checks needs a BlobStore.
+     *
+     * @param blobStore The store, or null to disable claim checks
+     */
+    public void setBlobStore(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * Instead of publishing large payloads, store them once in the {@link BlobStore} and only publish their key.
+     * Recipients fetch the payload when a handler first needs it. When a recipient has synchronous handlers for the
+     * context, it fetches the payload before queueing them instead, so they may run after messages received later.
+     * <br><b>NOTE: </b>Only enable this once every client supports claim checks.
+     *
+     * @param threshold The payload size in bytes, after compression, from which claim checks are used. -1 to disable
+     * @param ttlMillis How long stored payloads stay available to recipients
+     */
+    public void setClaimCheck(int threshold, long ttlMillis) {
+        this.claimCheckThreshold = threshold;
+        this.claimCheckTtlMillis = ttlMillis;
+    }
+
+    private EncodedPayload packPayload(MessageContext context, byte codec, byte[] bytes) throws IOException {
+        byte flags = MessageFlags.NONE;
+
+        int threshold = this.compressionThreshold;
+        if (this.compressedContexts.contains(context) || (threshold >= 0 && bytes.length >= threshold)) {
+            byte[] compressed = this.compressor.compress(bytes);
+            if (compressed.length < bytes.length) {
+                bytes = compressed;
+                flags |= MessageFlags.COMPRESSED;
+            }
+        }
+
+        BlobStore blobStore = this.blobStore;
+        int claimCheckThreshold = this.claimCheckThreshold;
+        if (blobStore != null && claimCheckThreshold >= 0 && bytes.length >= claimCheckThreshold) {
+            bytes = blobStore.put(bytes, this.claimCheckTtlMillis).getBytes(StandardCharsets.UTF_8);
+            flags |= MessageFlags.CLAIM_CHECK;
+        }
+        return new EncodedPayload(codec, flags, bytes);
+    }
+
+    private ContextCodecs getTypedCodecs(MessageContext context, Class<?> type) {
+        ContextEntry entry = this.contexts.get(context);
+        if (entry != null && type.equals(entry.type)) {
+            return entry.codecs;
+        }
+
+        ContextCodecs contextCodecs = this.typedCodecs.get(context);
+        if (contextCodecs == null || !contextCodecs.type.equals(type)) { //Only contexts we don't handle ourselves can change type
+            contextCodecs = new ContextCodecs(type);
+            this.typedCodecs.put(context, contextCodecs);
+        }
+        return contextCodecs;
+    }
+
     /**
      * Register your message handlers
      *
@@ -165,105 +902,277 @@ public abstract class ProtonManager {
 
     private void registerMessageHandler(Object object) {
         Class<?> klass = object.getClass();
+        MessageHandlerTable table = HANDLER_TABLES.get(klass);
+        if (table != null) { //Generated at compile time, already checked
+            for (MessageHandlerTable.Entry entry : table.entries()) {
+                registerHandler(object, klass.getName() + "#" + entry.getMethodName(), entry.getNamespace(), entry.getSubject(),
+                        entry.isAsync(), entry.getOrderBy(), entry.getPriority(), entry.getConflation(),
+                        HandlerFilter.of(entry.getSenders(), entry.getIgnoreSenders(), entry.getSenderGroups(), entry.getFilters()),
+                        entry.getParameterTypes(), entry.getInvoker());
+            }
+            return;
+        }
+
         for (final Method method : klass.getDeclaredMethods()) {
             if (method.isAnnotationPresent(MessageHandler.class)) {
                 MessageHandler handlerAnnotation = method.getAnnotation(MessageHandler.class);
-                String namespace = handlerAnnotation.namespace();
-                String subject = handlerAnnotation.subject();
-                if (namespace.contains("\\.") || subject.contains("\\.")) {
-                    throw new RegisterMessageHandlerException("MessageContext cannot contain `.`");
-                }
-
-                MessageContext context = new MessageContext(namespace, subject);
-
-                BiConsumer<Object, MessageAttributes> biConsumer;
-                Class<?> parameterClass;
-                if (method.getParameterCount() == 1) {
-                    parameterClass = method.getParameterTypes()[0];
-                    biConsumer = (data, messageAttributes) -> {
-                        try {
-                            method.invoke(object, data);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    };
-                } else if (method.getParameterCount() == 2) {
-                    parameterClass = method.getParameterTypes()[0];
-                    biConsumer = (data, messageAttributes) -> {
-                        try {
-                            method.invoke(object, data, messageAttributes);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    };
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                MessageHandlerTable.Invoker invoker;
+                if (parameterTypes.length == 1) {
+                    Consumer<Object> consumer = HandlerInvokers.oneArg(object, method);
+                    invoker = parameterTypes[0].equals(MessageAttributes.class)
+                            ? (target, argument, messageAttributes) -> consumer.accept(messageAttributes)
+                            : (target, argument, messageAttributes) -> consumer.accept(argument);
+                } else if (parameterTypes.length == 2) {
+                    BiConsumer<Object, Object> consumer = HandlerInvokers.twoArg(object, method);
+                    invoker = (target, argument, messageAttributes) -> consumer.accept(argument, messageAttributes);
                 } else {
-                    throw new RegisterMessageHandlerException("Annotated MessageHandler has incorrect number of parameters");
+                    invoker = null; //Rejected below
                 }
+                registerHandler(object, klass.getName() + "#" + method.getName(), handlerAnnotation.namespace(), handlerAnnotation.subject(),
+                        handlerAnnotation.async(), handlerAnnotation.orderBy(), handlerAnnotation.priority(), handlerAnnotation.conflate(),
+                        HandlerFilter.of(handlerAnnotation.senders(), handlerAnnotation.ignoreSenders(), handlerAnnotation.senderGroups(), handlerAnnotation.filters()),
+                        parameterTypes, invoker);
+            }
+        }
+    }
 
-                BiConsumer<Object, MessageAttributes> wrappedBiConsumer;
-                if (!handlerAnnotation.async()) { //Wrap the BiConsumer so it can be synchronous
-                    wrappedBiConsumer = (data, messageAttributes) -> {
-                        getScheduler().runTask(() -> {
-                            biConsumer.accept(data, messageAttributes);
-                        });
-                    };
-                } else {
-                    wrappedBiConsumer = (data, messageAttributes) -> { //prevent RabbitMQ thread stealing
-                        getScheduler().runTaskAsynchronously(() -> {
-                            biConsumer.accept(data, messageAttributes);
-                        });
-                    };
-                }
+    private void registerHandler(Object object, String handlerName, String namespace, String subject, boolean async, OrderBy orderBy,
+                                 Priority priority, Conflation conflation, HandlerFilter filter, Class<?>[] parameterTypes,
+                                 MessageHandlerTable.Invoker invoker) {
+        if (namespace.contains("\\.") || subject.contains("\\.")) {
+            throw new RegisterMessageHandlerException("MessageContext cannot contain `.`");
+        }
 
-                if (this.primitiveMapping.containsKey(parameterClass)) {
-                    parameterClass = this.primitiveMapping.get(parameterClass);
-                }
+        MessageContext context = new MessageContext(namespace, subject);
+
+        if (parameterTypes.length == 0 || parameterTypes.length > 2
+                || (parameterTypes.length == 2 && !parameterTypes[1].equals(MessageAttributes.class))) {
+            throw new RegisterMessageHandlerException("Annotated MessageHandler has incorrect number of parameters");
+        }
+
+        Class<?> parameterClass = parameterTypes[0];
+        Function<LazyPayload, Object> argument; //What the first parameter receives
+        boolean streaming = false;
+        if (parameterClass.equals(byte[].class)) {
+            argument = LazyPayload::handlerBytes;
+            parameterClass = null; //Raw handlers accept any data type
+        } else if (parameterClass.equals(ByteBuffer.class)) {
+            argument = LazyPayload::buffer;
+            parameterClass = null;
+        } else if (parameterClass.equals(InputStream.class)) {
+            if (!async) { //Reading blocks until chunks arrive, never do that on the main thread
+                throw new RegisterMessageHandlerException("InputStream MessageHandlers must be async");
+            }
+            argument = LazyPayload::stream;
+            streaming = true;
+            parameterClass = null;
+        } else if (parameterClass.equals(MessageAttributes.class) && parameterTypes.length == 1) {
+            argument = payload -> null; //Only interested in the attributes, never decode
+            parameterClass = null;
+        } else {
+            argument = LazyPayload::body;
+        }
 
-                if (!this.contextClassMap.containsKey(context)) {
-                    this.contextClassMap.put(context, parameterClass);
-                    this.messageHandlers.put(context, wrappedBiConsumer);
+        BiConsumer<LazyPayload, MessageAttributes> biConsumer = (payload, messageAttributes) -> {
+            if (!payload.begin()) { //Dropped from the inbound buffer while it waited
+                return;
+            }
+            try {
+                invoker.invoke(object, argument.apply(payload), messageAttributes);
+            } catch (Exception e) {
+                handlerFailed(handlerName, e);
+            } finally {
+                payload.end();
+            }
+        };
+
+        Conflator conflator = conflation == Conflation.NONE ? null : new Conflator(this.conflatedMessages);
+        BiConsumer<LazyPayload, MessageAttributes> call = conflator == null ? biConsumer : (payload, messageAttributes) -> {
+            conflator.run(conflationKey(conflation, messageAttributes), biConsumer); //Takes the newest message of the key
+        };
+
+        BiConsumer<LazyPayload, MessageAttributes> wrappedBiConsumer;
+        if (!async) { //Wrap the BiConsumer so it can be synchronous, run in batches by the SyncDispatcher
+            wrappedBiConsumer = (payload, messageAttributes) -> {
+                this.syncDispatcher.submit(() -> {
+                    call.accept(payload, messageAttributes);
+                }, payload.lane(priority));
+            };
+        } else if (orderBy == OrderBy.NONE) {
+            wrappedBiConsumer = (payload, messageAttributes) -> { //prevent RabbitMQ thread stealing
+                getScheduler().runTaskAsynchronously(() -> {
+                    call.accept(payload, messageAttributes);
+                });
+            };
+        } else {
+            wrappedBiConsumer = (payload, messageAttributes) -> {
+                this.orderedExecutor.execute(orderingKey(orderBy, messageAttributes), () -> {
+                    call.accept(payload, messageAttributes);
+                });
+            };
+        }
+
+        if (conflator != null) { //Only schedule when no call for the key is waiting already
+            BiConsumer<LazyPayload, MessageAttributes> schedule = wrappedBiConsumer;
+            wrappedBiConsumer = (payload, messageAttributes) -> {
+                Object key = conflationKey(conflation, messageAttributes);
+                if (conflator.offer(key, payload, messageAttributes)) {
                     try {
-                        registerMessageContext(context);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    if (!this.contextClassMap.get(context).equals(parameterClass)) {
-                        throw new RegisterMessageHandlerException("MessageContext already has defined data type");
-                    } else {
-                        this.messageHandlers.put(context, wrappedBiConsumer);
+                        schedule.accept(payload, messageAttributes);
+                    } catch (RejectedExecutionException e) {
+                        conflator.abandon(key);
+                        getLogger().warning("Dropped a message for an async MessageHandler: " + e.getMessage());
+                    } catch (RuntimeException e) {
+                        conflator.abandon(key);
+                        getLogger().log(Level.SEVERE, "Failed to schedule MessageHandler", e);
                     }
                 }
+            };
+        }
+
+        if (parameterClass != null && this.primitiveMapping.containsKey(parameterClass)) {
+            parameterClass = this.primitiveMapping.get(parameterClass);
+        }
+
+        Class<?> dataType = parameterClass;
+        RegisteredHandler handler = new RegisteredHandler(wrappedBiConsumer, async, streaming, priority, filter);
+        ContextEntry entry = this.contexts.compute(context, (key, existing) ->
+                (existing == null ? ContextEntry.EMPTY : existing).withHandler(dataType, handler)); //Throws on a data type conflict
+        if (entry.handlers.length == 1) { //First handler of the context
+            try {
+                registerMessageContext(context);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
     }
 
-    protected void notifyHandlers(String recipient, String senderName, UUID senderID, MessageContext context, String jsonData){
+    protected void notifyHandlers(String recipient, String senderName, UUID senderID, MessageContext context, byte codecId, byte flags, byte[] data){
+        notifyHandlers(recipient, senderName, senderID, Collections.emptyList(), context, codecId, flags, Collections.emptyMap(), data);
+    }
+
+    /**
+     * @param senderGroups The groups of the sender, empty when it did not send them
+     * @param headers      The headers the message was sent with
+     */
+    protected void notifyHandlers(String recipient, String senderName, UUID senderID, List<String> senderGroups, MessageContext context,
+                                  byte codecId, byte flags, Map<String, String> headers, byte[] data){
         if (senderID.equals(this.id) && recipient.isEmpty()) { //Implies this was a broadcast from us. Ignore
             return;                                            //Conversely, we don't want to ignore messages we
         }                                                      //purposefully sent ourself
 
-        if (!this.contextClassMap.containsKey(context)) { //Someone sent something to us that we're not listening for
+        ContextEntry entry = this.contexts.get(context);
+        if (entry == null) { //Someone sent something to us that we're not listening for
             getLogger().warning("Received message that has no registered handlers.");
             return;
         }
 
-        Class<?> type = this.contextClassMap.get(context);
+        MessageCodec codec = this.codecs[codecId & 0xFF];
+        if (codec == null) {
+            getLogger().warning(String.format("Received message encoded with unknown codec id %d.", codecId));
+            return;
+        }
+
         try {
-            Object body = gson.fromJson(jsonData, type);
-            MessageAttributes messageAttributes = new MessageAttributes(context.getNamespace(), context.getSubject(), senderName, senderID);
-            this.messageHandlers.get(context).forEach((biConsumer) -> {
-                try {
-                    biConsumer.accept(body, messageAttributes);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
+            Priority priority = MessageFlags.priority(flags); //Null unless the sender set one
+            MessageAttributes messageAttributes = new MessageAttributes(context.getNamespace(), context.getSubject(), senderName, senderID,
+                    priority == null ? Priority.NORMAL : priority, senderGroups, headers);
+            RegisteredHandler[] handlers = entry.accepting(messageAttributes);
+            if (handlers.length == 0) { //Every handler filtered it out, don't decode or schedule anything
+                return;
+            }
+            int inboundPriority = (priority == null ? entry.priority : priority).ordinal();
+            if (MessageFlags.has(flags, MessageFlags.CHUNKED)) {
+                this.chunkAssembler.accept(messageAttributes, entry, handlers, codec, inboundPriority, data);
+                return;
+            }
+            InboundBuffer.Ticket ticket = this.inboundBuffer.admit(context, data.length, handlers.length, inboundPriority);
+            if (ticket == null) { //Full, counted as dropped
+                return;
+            }
+            LazyPayload payload = new LazyPayload(entry.typedCodec(codec), this.compressor, this.blobStore, flags, data);
+            payload.setTicket(ticket);
+            payload.setPriority(priority);
+            if (MessageFlags.has(flags, MessageFlags.CLAIM_CHECK) && !allAsync(handlers)) { //Never fetch on the main thread
+                payload.fetchAsync().thenRun(() -> dispatch(handlers, payload, messageAttributes));
+                return;
+            }
+            dispatch(handlers, payload, messageAttributes);
         } catch (Exception e) {
-            e.printStackTrace();
+            getLogger().log(Level.SEVERE, String.format("Failed to deliver message for %s", context.toContextString()), e);
+        }
+    }
+
+    private static boolean allAsync(RegisteredHandler[] handlers) {
+        for (RegisteredHandler handler : handlers) {
+            if (!handler.async) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object orderingKey(OrderBy orderBy, MessageAttributes messageAttributes) {
+        return orderBy == OrderBy.KEY ? messageKey(messageAttributes) : messageAttributes.getSenderID();
+    }
+
+    private Object conflationKey(Conflation conflation, MessageAttributes messageAttributes) {
+        if (conflation == Conflation.KEY) {
+            return messageKey(messageAttributes);
+        }
+        return conflation == Conflation.SENDER ? messageAttributes.getSenderID() : Boolean.TRUE; //One key for the whole context
+    }
+
+    /**
+     * @return Object The key the sender of a {@link KeyedMessage} put in its headers, otherwise the sender.
+     * Called on the broker thread, so it must never decode the message
+     */
+    private Object messageKey(MessageAttributes messageAttributes) {
+        String key = messageAttributes.getHeader(KeyedMessage.KEY_HEADER);
+        return key != null ? key : messageAttributes.getSenderID();
+    }
+
+    /**
+     * @return Map The headers, with the key of a {@link KeyedMessage} added
+     */
+    private static Map<String, String> withKey(Object data, Map<String, String> headers) {
+        if (!(data instanceof KeyedMessage)) {
+            return headers;
+        }
+        Map<String, String> keyed = new HashMap<>(headers);
+        keyed.put(KeyedMessage.KEY_HEADER, String.valueOf(((KeyedMessage) data).getOrderingKey()));
+        return keyed;
+    }
+
+    private void handlerFailed(String handlerName, Exception e) {
+        getLogger().log(Level.SEVERE, String.format("MessageHandler %s failed", handlerName), e);
+    }
+
+    void dispatch(RegisteredHandler[] handlers, LazyPayload payload, MessageAttributes messageAttributes) {
+        payload.setShared(handlers.length > 1);
+        for (RegisteredHandler handler : handlers) {
+            try {
+                handler.consumer.accept(payload, messageAttributes);
+            } catch (RejectedExecutionException e) { //The async executor is full, counted by it
+                payload.end();
+                getLogger().warning("Dropped a message for an async MessageHandler: " + e.getMessage());
+            } catch (Exception e) {
+                payload.end();
+                getLogger().log(Level.SEVERE, "Failed to schedule MessageHandler", e);
+            }
         }
     }
 
+    /**
+     * Cancel the background tasks of this manager, called on tear down
+     */
+    protected void cancelTasks() {
+        this.tasks.forEach(TaskHandle::cancel);
+        this.tasks.clear();
+        this.inboundBuffer.close(); //Don't keep broker threads waiting
+    }
+
     protected SchedulerAdapter getScheduler(){
         return this.scheduler;
     }
@@ -295,9 +1204,43 @@ public abstract class ProtonManager {
 
     protected abstract void connect() throws Exception;
 
-    protected abstract void sendData(String sender, UUID senderID, String recipient, MessageContext context, byte[] data) throws IOException;
+    protected abstract void sendData(String sender, UUID senderID, String recipient, MessageContext context, byte codec, byte flags,
+                                     Map<String, String> headers, byte[] data) throws IOException;
+
+    protected abstract void broadcastData(String sender, UUID senderID, MessageContext context, byte codec, byte flags,
+                                          Map<String, String> headers, byte[] data) throws IOException;
 
-    protected abstract void broadcastData(String sender, UUID senderID, MessageContext context, byte[] data) throws IOException;
+    /**
+     * Publish encoded data to several recipients, by default once per recipient
+     *
+     * @param recipients At least two distinct recipients
+     */
+    protected void multicastData(String sender, UUID senderID, Collection<String> recipients, MessageContext context, byte codec, byte flags,
+                                 Map<String, String> headers, byte[] data) throws IOException {
+        for (String recipient : recipients) {
+            sendData(sender, senderID, recipient, context, codec, flags, headers, data);
+        }
+    }
+
+    /**
+     * Publish without waiting for the broker, by default this publishes synchronously
+     *
+     * @return CompletableFuture Completes when the broker accepted the message, exceptionally with a {@link MessageSendException}
+     */
+    protected CompletableFuture<Void> sendDataAsync(String sender, UUID senderID, String recipient, MessageContext context, byte codec, byte flags,
+                                                    Map<String, String> headers, byte[] data) throws IOException {
+        sendData(sender, senderID, recipient, context, codec, flags, headers, data);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * @see ProtonManager#sendDataAsync
+     */
+    protected CompletableFuture<Void> broadcastDataAsync(String sender, UUID senderID, MessageContext context, byte codec, byte flags,
+                                                         Map<String, String> headers, byte[] data) throws IOException {
+        broadcastData(sender, senderID, context, codec, flags, headers, data);
+        return CompletableFuture.completedFuture(null);
+    }
 
     protected abstract void bindRecipient(MessageContext context, String recipient) throws IOException;
 
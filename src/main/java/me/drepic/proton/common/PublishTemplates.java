@@ -0,0 +1,51 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.message.MessageContext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Whatever a manager can prepare once per {@link MessageContext} and recipient, like message properties or channel names,
+ * so sending to the same place again only costs a lookup
+ */
+class PublishTemplates<T> {
+
+    private static final int MAX_RECIPIENTS = 1024; //Per context, recipients beyond this are built for every message
+
+    private final ConcurrentHashMap<MessageContext, ConcurrentHashMap<String, T>> templates;
+    private final BiFunction<MessageContext, String, T> factory;
+
+    PublishTemplates(BiFunction<MessageContext, String, T> factory) {
+        this.templates = new ConcurrentHashMap<>();
+        this.factory = factory;
+    }
+
+    /**
+     * @param recipient The recipient, empty for broadcasts
+     */
+    T get(MessageContext context, String recipient) {
+        ConcurrentHashMap<String, T> byRecipient = this.templates.get(context);
+        if (byRecipient == null) {
+            byRecipient = this.templates.computeIfAbsent(context, key -> new ConcurrentHashMap<>());
+        }
+        T template = byRecipient.get(recipient);
+        if (template == null) {
+            template = this.factory.apply(context, recipient);
+            if (byRecipient.size() < MAX_RECIPIENTS) {
+                T previous = byRecipient.putIfAbsent(recipient, template);
+                if (previous != null) {
+                    template = previous;
+                }
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Forget every template, for when what they were built from changed
+     */
+    void clear() {
+        this.templates.clear();
+    }
+}
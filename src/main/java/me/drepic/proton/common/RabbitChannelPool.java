@@ -0,0 +1,193 @@
+package me.drepic.proton.common;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Channels only used for publishing, kept apart from the consuming channel. A publisher checks one out, so no two
+ * threads ever publish on the same channel. Channels are opened when needed, up to the pool size, after which
+ * publishers wait for one to be returned.
+ * <br>A thread gets the channel it used last whenever that one is free, so its messages keep their order.
+ */
+class RabbitChannelPool {
+
+    private static final long CHECKOUT_TIMEOUT_SECONDS = 5;
+
+    private final Connection connection;
+    private final BlockingQueue<PublishChannel> idle;
+    private final List<PublishChannel> open;
+    private final ThreadLocal<PublishChannel> lastUsed;
+    private volatile int size;
+    private volatile boolean closed;
+
+    RabbitChannelPool(Connection connection, int size) {
+        this.connection = connection;
+        this.idle = new LinkedBlockingQueue<>();
+        this.open = new CopyOnWriteArrayList<>();
+        this.lastUsed = new ThreadLocal<>();
+        setSize(size);
+    }
+
+    /**
+     * Take a channel for the calling thread, it must be returned with {@link RabbitChannelPool#release}
+     *
+     * @throws IOException When no channel could be opened or none was returned in time
+     */
+    PublishChannel checkout() throws IOException {
+        PublishChannel channel = this.lastUsed.get();
+        if (channel == null || !this.idle.remove(channel) || !channel.isOpen()) {
+            if (channel != null && !channel.isOpen()) {
+                discard(channel);
+            }
+            channel = take();
+            this.lastUsed.set(channel);
+        }
+        return channel;
+    }
+
+    private PublishChannel take() throws IOException {
+        PublishChannel channel;
+        while ((channel = this.idle.poll()) != null) {
+            if (channel.isOpen()) {
+                return channel;
+            }
+            discard(channel);
+        }
+        synchronized (this) {
+            if (this.closed) {
+                throw new IOException("The connection is closed");
+            }
+            if (this.open.size() < this.size) {
+                channel = new PublishChannel(this.connection.createChannel());
+                this.open.add(channel);
+                return channel;
+            }
+        }
+        try {
+            channel = this.idle.poll(CHECKOUT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a publishing channel", e);
+        }
+        if (channel == null) {
+            throw new IOException("Timed out waiting for a publishing channel");
+        }
+        return channel;
+    }
+
+    void release(PublishChannel channel) {
+        if (this.closed || !channel.isOpen() || (this.open.size() > this.size && channel.confirms.size() == 0)) { //Shrink after setSize
+            discard(channel);
+        } else {
+            this.idle.offer(channel);
+        }
+    }
+
+    private void discard(PublishChannel channel) {
+        this.open.remove(channel);
+        channel.close();
+    }
+
+    void setSize(int size) {
+        this.size = Math.max(1, size);
+    }
+
+    int getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return int Confirms still awaited on all channels
+     */
+    int getUnconfirmed() {
+        int unconfirmed = 0;
+        for (PublishChannel channel : this.open) {
+            unconfirmed += channel.confirms.size();
+        }
+        return unconfirmed;
+    }
+
+    void close() {
+        synchronized (this) {
+            this.closed = true;
+        }
+        for (PublishChannel channel : this.open) {
+            channel.close();
+        }
+        this.open.clear();
+        this.idle.clear();
+    }
+
+    /**
+     * A channel in confirm mode. Only the publishes of sendAsync and broadcastAsync are tracked, the broker
+     * confirms the others too but nobody waits for them.
+     * <br>Publishes still waiting fail when the channel shuts down or is recovered, their confirms never come.
+     */
+    static class PublishChannel {
+
+        private final Channel channel;
+        private final ConfirmTracker confirms;
+
+        private PublishChannel(Channel channel) throws IOException {
+            this.channel = channel;
+            this.confirms = new ConfirmTracker();
+            this.channel.confirmSelect();
+            this.channel.addConfirmListener(this.confirms::ack, this.confirms::nack);
+            this.channel.addShutdownListener(cause -> this.confirms.failAll(cause));
+            if (channel instanceof Recoverable) { //A recovered channel starts its sequence numbers over
+                ((Recoverable) channel).addRecoveryListener(new RecoveryListener() {
+                    @Override
+                    public void handleRecoveryStarted(Recoverable recoverable) {
+                        confirms.failAll(new IOException("The channel was recovered before the broker confirmed the message"));
+                    }
+
+                    @Override
+                    public void handleRecovery(Recoverable recoverable) {
+                        confirms.failAll(new IOException("The channel was recovered before the broker confirmed the message"));
+                    }
+                });
+            }
+        }
+
+        void publish(String exchange, AMQP.BasicProperties properties, byte[] data) throws IOException {
+            this.channel.basicPublish(exchange, "", properties, data);
+        }
+
+        CompletableFuture<Void> publishConfirmed(String exchange, AMQP.BasicProperties properties, byte[] data) throws IOException {
+            long sequenceNumber = this.channel.getNextPublishSeqNo();
+            CompletableFuture<Void> future = this.confirms.track(sequenceNumber); //Before publishing, the confirm may come right away
+            try {
+                this.channel.basicPublish(exchange, "", properties, data);
+            } catch (IOException | RuntimeException e) { //Closed channels throw AlreadyClosedException
+                this.confirms.forget(sequenceNumber);
+                throw e;
+            }
+            return future;
+        }
+
+        boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        private void close() {
+            this.confirms.failAll(new IOException("The channel was closed before the broker confirmed the message"));
+            try {
+                if (this.channel.isOpen()) {
+                    this.channel.close();
+                }
+            } catch (Exception ignored) {
+            }
+        }
+    }
+}
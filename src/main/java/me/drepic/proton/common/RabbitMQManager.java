@@ -2,21 +2,40 @@ package me.drepic.proton.common;
 
 import com.rabbitmq.client.*;
 import me.drepic.proton.common.adapters.SchedulerAdapter;
+import me.drepic.proton.common.codec.GsonCodec;
 import me.drepic.proton.common.message.MessageContext;
+import me.drepic.proton.common.message.Priority;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 public class RabbitMQManager extends ProtonManager {
 
+    static final String HEADER_PREFIX = "h-"; //Headers set by the sender, kept apart from the ones Proton routes on
+    static final String RECIPIENT_PREFIX = "to:"; //One header per recipient of a multicast, published once for all of them when bound
+    private static final int PREFETCH = 256; //Unacknowledged deliveries, so a blocked inbound buffer leaves the rest in the queue
+    private static final int DEFAULT_PUBLISH_CHANNELS = 8;
+
     private Connection connection;
-    private Channel channel;
+    private Channel channel; //Consuming and binding only, publishes go through the pool
+    private RabbitChannelPool publishChannels;
+    private int publishChannelCount = DEFAULT_PUBLISH_CHANNELS;
     private String queueName;
+    private final Map<String, MessageContext> contextCache = new ConcurrentHashMap<>(); //Only contexts we bound
+    private final PublishTemplates<RabbitPublishTemplate> publishTemplates = new PublishTemplates<>(
+            (context, recipient) -> new RabbitPublishTemplate(this.name, RabbitPublishTemplate.senderID(this.id, this.binarySenderID), this.groups, context, recipient));
+    private volatile boolean binarySenderID; //Send the sender id as 16 bytes instead of a string, both are always accepted
+    private volatile boolean multicastBindings; //Bind and publish to: headers, otherwise a multicast is published per recipient
 
     private final String host;
     private final String virtualHost;
@@ -64,29 +83,67 @@ public class RabbitMQManager extends ProtonManager {
         channel = connection.createChannel();
         channel.exchangeDeclare("proton.broadcast", "headers");
         channel.exchangeDeclare("proton.direct", "headers");
+        publishChannels = new RabbitChannelPool(connection, publishChannelCount);
 
-        queueName = channel.queueDeclare().getQueue();
-        channel.basicConsume(queueName, true, this::deliverCallback, consumerTag -> {});
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("x-max-priority", Priority.values().length - 1); //Priority ordinals, older clients send none which ranks as LOW
+        queueName = channel.queueDeclare("", false, true, true, arguments).getQueue();
+        channel.basicQos(PREFETCH);
+        channel.basicConsume(queueName, false, this::deliverCallback, consumerTag -> {});
 
         getLogger().info(String.format("Connected as '%s' with id:%s\n", this.name, this.id.toString()));
     }
 
-    protected void deliverCallback(String consumerTag, Delivery delivery) {
-        String jsonData = new String(delivery.getBody(), StandardCharsets.UTF_8);
-        String contextString = delivery.getProperties().getHeaders().get("messageContext").toString();
-        MessageContext context;
+    protected void deliverCallback(String consumerTag, Delivery delivery) throws IOException {
         try {
-            context = MessageContext.fromString(contextString);
-        } catch (Exception e) {
-            getLogger().warning(String.format("Unable to parse namespace and subject from given MessageContext: %s.", contextString));
-            return;
+            deliver(delivery);
+        } finally { //Once the message has a place in the inbound buffer, or was dropped
+            channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+        }
+    }
+
+    private void deliver(Delivery delivery) {
+        String contextString = delivery.getProperties().getHeaders().get("messageContext").toString();
+        MessageContext context = this.contextCache.get(contextString);
+        if (context == null) {
+            try {
+                context = MessageContext.fromString(contextString);
+            } catch (Exception e) {
+                getLogger().warning(String.format("Unable to parse namespace and subject from given MessageContext: %s.", contextString));
+                return;
+            }
         }
 
         String recipient = delivery.getProperties().getHeaders().get("recipient").toString();
         String senderName = delivery.getProperties().getHeaders().get("x-senderName").toString();
-        UUID senderID = UUID.fromString(delivery.getProperties().getHeaders().get("x-senderID").toString());
+        UUID senderID = RabbitPublishTemplate.readSenderID(delivery.getProperties().getHeaders().get("x-senderID"));
+        Object codecHeader = delivery.getProperties().getHeaders().get("x-codec"); //Absent when sent by an older client
+        byte codec = codecHeader instanceof Number ? ((Number) codecHeader).byteValue() : GsonCodec.ID;
+        Object flagsHeader = delivery.getProperties().getHeaders().get("x-flags"); //Only present when not zero
+        byte flags = flagsHeader instanceof Number ? ((Number) flagsHeader).byteValue() : MessageFlags.NONE;
+        Object groupsHeader = delivery.getProperties().getHeaders().get("x-senderGroups"); //Absent when sent by an older client
+        List<String> senderGroups = Collections.emptyList();
+        if (groupsHeader instanceof List) {
+            senderGroups = new ArrayList<>();
+            for (Object group : (List<?>) groupsHeader) {
+                senderGroups.add(group.toString());
+            }
+        }
+
+        notifyHandlers(recipient, senderName, senderID, senderGroups, context, codec, flags, readHeaders(delivery.getProperties().getHeaders()), delivery.getBody());
+    }
 
-        notifyHandlers(recipient, senderName, senderID, context, jsonData);
+    private Map<String, String> readHeaders(Map<String, Object> amqpHeaders) {
+        Map<String, String> headers = Collections.emptyMap();
+        for (Map.Entry<String, Object> header : amqpHeaders.entrySet()) {
+            if (header.getKey().startsWith(HEADER_PREFIX)) {
+                if (headers.isEmpty()) {
+                    headers = new HashMap<>();
+                }
+                headers.put(header.getKey().substring(HEADER_PREFIX.length()), header.getValue().toString());
+            }
+        }
+        return headers;
     }
 
     @Override
@@ -98,10 +155,21 @@ public class RabbitMQManager extends ProtonManager {
         headers.put("messageContext", context.toContextString());
 
         channel.queueBind(queueName, "proton.direct", "", headers);
+
+        if (!this.multicastBindings) {
+            return;
+        }
+        Map<String, Object> multicastHeaders = new HashMap<>(); //The queue gets a multicast once, however many of its bindings match
+        multicastHeaders.put("x-match", "all");
+        multicastHeaders.put(RECIPIENT_PREFIX + recipient, true);
+        multicastHeaders.put("messageContext", context.toContextString());
+
+        channel.queueBind(queueName, "proton.direct", "", multicastHeaders);
     }
 
     @Override
     protected void bindBroadcast(MessageContext context) throws IOException {
+        this.contextCache.put(context.toContextString(), context);
         Map<String, Object> headers = new HashMap<>();
         headers.put("x-match", "all");
         headers.put("messageContext", context.toContextString());
@@ -109,33 +177,119 @@ public class RabbitMQManager extends ProtonManager {
         channel.queueBind(queueName, "proton.broadcast", "", headers);
     }
 
+    private AMQP.BasicProperties properties(String sender, UUID senderID, String recipient, MessageContext context, byte codec, byte flags,
+                                           Map<String, String> messageHeaders) {
+        if (messageHeaders.isEmpty() && sender.equals(this.name) && senderID.equals(this.id)) {
+            return this.publishTemplates.get(context, recipient).properties(codec, flags);
+        }
+        Map<String, Object> headers = RabbitPublishTemplate.headers(sender, RabbitPublishTemplate.senderID(senderID, this.binarySenderID), this.groups, context, recipient);
+        return RabbitPublishTemplate.build(headers, codec, flags, messageHeaders);
+    }
+
     @Override
-    protected void sendData(String sender, UUID senderID, String recipient, MessageContext context, byte[] data) throws IOException {
-        Map<String, Object> headers = new HashMap<>();
-        AMQP.BasicProperties.Builder propBuilder = new AMQP.BasicProperties.Builder();
+    protected void sendData(String sender, UUID senderID, String recipient, MessageContext context, byte codec, byte flags,
+                            Map<String, String> messageHeaders, byte[] data) throws IOException {
+        publish("proton.direct", properties(sender, senderID, recipient, context, codec, flags, messageHeaders), data);
+    }
 
-        headers.put("x-senderName", sender);
-        headers.put("x-senderID", senderID.toString());
-        headers.put("recipient", recipient);
-        headers.put("messageContext", context.toContextString());
-        channel.basicPublish("proton.direct", "", propBuilder.headers(headers).build(), data);
+    @Override
+    protected void broadcastData(String sender, UUID senderID, MessageContext context, byte codec, byte flags,
+                                 Map<String, String> messageHeaders, byte[] data) throws IOException {
+        publish("proton.broadcast", properties(sender, senderID, "", context, codec, flags, messageHeaders), data);
     }
 
     @Override
-    protected void broadcastData(String sender, UUID senderID, MessageContext context, byte[] data) throws IOException {
-        Map<String, Object> headers = new HashMap<>();
-        AMQP.BasicProperties.Builder propBuilder = new AMQP.BasicProperties.Builder();
+    protected void multicastData(String sender, UUID senderID, Collection<String> recipients, MessageContext context, byte codec, byte flags,
+                                 Map<String, String> messageHeaders, byte[] data) throws IOException {
+        if (!this.multicastBindings) {
+            super.multicastData(sender, senderID, recipients, context, codec, flags, messageHeaders, data);
+            return;
+        }
+        //The recipient header only tells receivers it was not a broadcast, the to: headers route it
+        Map<String, Object> headers = new HashMap<>(RabbitPublishTemplate.headers(sender, RabbitPublishTemplate.senderID(senderID, this.binarySenderID), this.groups, context, String.join(",", recipients)));
+        for (String recipient : recipients) {
+            headers.put(RECIPIENT_PREFIX + recipient, true);
+        }
+        publish("proton.direct", RabbitPublishTemplate.build(headers, codec, flags, messageHeaders), data);
+    }
 
-        headers.put("x-senderName", sender);
-        headers.put("x-senderID", senderID.toString());
-        headers.put("recipient", "");
-        headers.put("messageContext", context.toContextString());
-        channel.basicPublish("proton.broadcast", "", propBuilder.headers(headers).build(), data);
+    private void publish(String exchange, AMQP.BasicProperties properties, byte[] data) throws IOException {
+        RabbitChannelPool.PublishChannel publishChannel = publishChannels.checkout();
+        try {
+            publishChannel.publish(exchange, properties, data);
+        } finally {
+            publishChannels.release(publishChannel);
+        }
+    }
+
+    @Override
+    protected CompletableFuture<Void> sendDataAsync(String sender, UUID senderID, String recipient, MessageContext context, byte codec, byte flags,
+                                                    Map<String, String> messageHeaders, byte[] data) throws IOException {
+        return publishConfirmed("proton.direct", properties(sender, senderID, recipient, context, codec, flags, messageHeaders), data);
+    }
+
+    @Override
+    protected CompletableFuture<Void> broadcastDataAsync(String sender, UUID senderID, MessageContext context, byte codec, byte flags,
+                                                         Map<String, String> messageHeaders, byte[] data) throws IOException {
+        return publishConfirmed("proton.broadcast", properties(sender, senderID, "", context, codec, flags, messageHeaders), data);
+    }
+
+    private CompletableFuture<Void> publishConfirmed(String exchange, AMQP.BasicProperties properties, byte[] data) throws IOException {
+        RabbitChannelPool.PublishChannel publishChannel = publishChannels.checkout();
+        try {
+            return publishChannel.publishConfirmed(exchange, properties, data);
+        } finally {
+            publishChannels.release(publishChannel);
+        }
+    }
+
+    /**
+     * Choose whether the sender id is sent as its 16 bytes instead of its 36 character string.
+     * Both forms are always received, so enable this once every client has been updated.
+     *
+     * @param binarySenderID true to send the id as bytes
+     */
+    public void setBinarySenderID(boolean binarySenderID) {
+        this.binarySenderID = binarySenderID;
+        this.publishTemplates.clear();
+    }
+
+    /**
+     * Choose whether a message sent to several recipients is published once, routed by a to: header per recipient,
+     * instead of once per recipient. Every context and recipient this client receives on gets a second binding for it,
+     * which the exchange evaluates for every direct message, so direct routing costs about twice as much.
+     * <br>A client only receives messages published this way with multicast bindings of its own, so enable this on
+     * every client at once, before any handlers are registered.
+     *
+     * @param multicastBindings true to bind and publish multicasts once
+     */
+    public void setMulticastBindings(boolean multicastBindings) {
+        this.multicastBindings = multicastBindings;
+    }
+
+    /**
+     * Set how many channels may publish at the same time. Each publishing thread takes a channel of its own,
+     * when all are taken it waits for one to be returned.
+     *
+     * @param count The most publishing channels, at least 1
+     */
+    public void setPublishChannels(int count) {
+        this.publishChannelCount = Math.max(1, count);
+        this.publishChannels.setSize(this.publishChannelCount);
+    }
+
+    /**
+     * @return int The messages sent with sendAsync or broadcastAsync which the broker has not confirmed yet
+     */
+    public int getUnconfirmedMessages() {
+        return this.publishChannels.getUnconfirmed();
     }
 
     @Override
     protected void tearDown() {
+        cancelTasks();
         try {
+            publishChannels.close();
             channel.close();
             connection.close();
         } catch (Exception ignored) {
@@ -0,0 +1,127 @@
+package me.drepic.proton.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.AMQP;
+import me.drepic.proton.common.message.MessageContext;
+import me.drepic.proton.common.message.Priority;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The properties of messages from this client to one {@link MessageContext} and recipient. They only differ by
+ * codec and flags, so the few combinations in use are built once and shared, properties are immutable.
+ */
+class RabbitPublishTemplate {
+
+    private static final int MAX_VARIANTS = 8; //Codec and flag combinations kept, others are built for every message
+
+    private final Map<String, Object> headers;
+    private volatile Variant[] variants; //Copy on write
+
+    /**
+     * @param senderID The sender id header, from {@link RabbitPublishTemplate#senderID}
+     */
+    RabbitPublishTemplate(String sender, Object senderID, String[] groups, MessageContext context, String recipient) {
+        this.headers = headers(sender, senderID, groups, context, recipient);
+        this.variants = new Variant[0];
+    }
+
+    AMQP.BasicProperties properties(byte codec, byte flags) {
+        Variant[] variants = this.variants;
+        for (Variant variant : variants) {
+            if (variant.codec == codec && variant.flags == flags) {
+                return variant.properties;
+            }
+        }
+
+        AMQP.BasicProperties properties = build(this.headers, codec, flags, ImmutableMap.of());
+        synchronized (this) {
+            if (this.variants.length < MAX_VARIANTS) {
+                Variant[] grown = new Variant[this.variants.length + 1];
+                System.arraycopy(this.variants, 0, grown, 0, this.variants.length);
+                grown[this.variants.length] = new Variant(codec, flags, properties);
+                this.variants = grown;
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @param binary Whether to send the 16 bytes of the id instead of its string, which older clients can't read
+     * @return Object The value of the x-senderID header
+     */
+    static Object senderID(UUID senderID, boolean binary) {
+        if (!binary) {
+            return senderID.toString();
+        }
+        return ByteBuffer.allocate(16)
+                .putLong(senderID.getMostSignificantBits())
+                .putLong(senderID.getLeastSignificantBits())
+                .array();
+    }
+
+    /**
+     * Read the x-senderID header in either form
+     */
+    static UUID readSenderID(Object header) {
+        if (header instanceof byte[] && ((byte[]) header).length == 16) {
+            ByteBuffer buffer = ByteBuffer.wrap((byte[]) header);
+            return new UUID(buffer.getLong(), buffer.getLong());
+        }
+        return UUID.fromString(header.toString());
+    }
+
+    /**
+     * @param senderID The sender id header, from {@link RabbitPublishTemplate#senderID}
+     * @return Map The headers every message from the sender to the context and recipient has
+     */
+    static Map<String, Object> headers(String sender, Object senderID, String[] groups, MessageContext context, String recipient) {
+        ImmutableMap.Builder<String, Object> headers = ImmutableMap.builder();
+        headers.put("x-senderName", sender);
+        headers.put("x-senderID", senderID);
+        headers.put("recipient", recipient);
+        headers.put("messageContext", context.toContextString());
+        if (groups.length > 0) {
+            headers.put("x-senderGroups", ImmutableList.copyOf(groups));
+        }
+        return headers.build();
+    }
+
+    /**
+     * Build the properties of one message
+     *
+     * @param headers        The headers from {@link RabbitPublishTemplate#headers}
+     * @param messageHeaders The headers set by the sender of this message
+     */
+    static AMQP.BasicProperties build(Map<String, Object> headers, byte codec, byte flags, Map<String, String> messageHeaders) {
+        ImmutableMap.Builder<String, Object> allHeaders = ImmutableMap.builder();
+        allHeaders.putAll(headers);
+        allHeaders.put("x-codec", codec);
+        if (flags != MessageFlags.NONE) {
+            allHeaders.put("x-flags", flags);
+        }
+        for (Map.Entry<String, String> header : messageHeaders.entrySet()) {
+            allHeaders.put(RabbitMQManager.HEADER_PREFIX + header.getKey(), header.getValue());
+        }
+        Priority priority = MessageFlags.priority(flags);
+        return new AMQP.BasicProperties.Builder()
+                .priority((priority == null ? Priority.NORMAL : priority).ordinal())
+                .headers(allHeaders.build())
+                .build();
+    }
+
+    private static class Variant {
+        final byte codec;
+        final byte flags;
+        final AMQP.BasicProperties properties;
+
+        Variant(byte codec, byte flags, AMQP.BasicProperties properties) {
+            this.codec = codec;
+            this.flags = flags;
+            this.properties = properties;
+        }
+    }
+}
@@ -1,31 +1,72 @@
 package me.drepic.proton.common;
 
+import io.lettuce.core.LettuceFutures;
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
 import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
 import io.lettuce.core.pubsub.RedisPubSubAdapter;
 import io.lettuce.core.pubsub.RedisPubSubListener;
 import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import io.lettuce.core.pubsub.api.async.RedisPubSubAsyncCommands;
 import io.lettuce.core.pubsub.api.sync.RedisPubSubCommands;
 import me.drepic.proton.common.adapters.SchedulerAdapter;
+import me.drepic.proton.common.codec.GsonCodec;
+import me.drepic.proton.common.exception.MessageSendException;
 import me.drepic.proton.common.message.MessageContext;
+import me.drepic.proton.common.redis.RedisBatchPublisher;
+import me.drepic.proton.common.redis.RedisBlobStore;
 import me.drepic.proton.common.redis.RedisChannel;
 import me.drepic.proton.common.redis.RedisDataWrapper;
+import me.drepic.proton.common.redis.RedisEnvelope;
+import me.drepic.proton.common.redis.RedisIdRegistry;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class RedisManager extends ProtonManager {
 
+    private static final byte[] NO_DATA = new byte[0];
+    private static final long MULTICAST_TIMEOUT_SECONDS = 60; //The default command timeout of lettuce
+
     String host;
     String password;
     int port;
 
+    boolean binaryEnvelope; //Send RedisEnvelope instead of the JSON RedisDataWrapper, both are always accepted
+    boolean compactIds; //Send on id based channels with the sender name as an id, both are always accepted
+    boolean envelopeMetadata; //Send the sender groups and headers in the RedisEnvelope, they are always in the JSON wrapper
+    volatile boolean warnedGroups; //Logged once that envelopes without metadata leave out the groups
+
+    RedisIdRegistry registry;
+    StatefulRedisConnection<String, String> registryConnection;
+    StatefulRedisConnection<byte[], byte[]> blobConnection;
+    final Map<String, RedisChannel> channelCache = new ConcurrentHashMap<>(); //Only channels we subscribed to
+    final Map<Integer, List<PendingDelivery>> awaitingNames = new ConcurrentHashMap<>(); //Sender ids being looked up
+    final PublishTemplates<ChannelNames> publishChannels = new PublishTemplates<>(ChannelNames::new);
+    final AtomicReferenceArray<byte[]> senderSections = new AtomicReferenceArray<>(4); //By compact ids and metadata
+
     RedisClient client;
-    RedisPubSubCommands<String, String> subCommands;
-    RedisPubSubCommands<String, String> pubCommands;
-    StatefulRedisPubSubConnection<String, String> subConnection;
-    StatefulRedisPubSubConnection<String, String> pubConnection;
+    RedisPubSubCommands<byte[], byte[]> subCommands;
+    RedisPubSubCommands<byte[], byte[]> pubCommands;
+    RedisPubSubAsyncCommands<byte[], byte[]> pubAsyncCommands;
+    volatile RedisBatchPublisher batchPublisher; //Null unless publishes are batched
+    StatefulRedisPubSubConnection<byte[], byte[]> subConnection;
+    StatefulRedisPubSubConnection<byte[], byte[]> pubConnection;
 
     protected RedisManager(Proton proton, String name, String[] groups, String host, int port, String password) {
         super(proton, name, groups);
@@ -55,13 +96,13 @@ public class RedisManager extends ProtonManager {
             this.client = RedisClient.create(RedisURI.Builder.redis(this.host, this.port).withPassword(this.password.toCharArray()).build());
         }
 
-        subConnection = client.connectPubSub();
-        pubConnection = client.connectPubSub();
+        subConnection = client.connectPubSub(ByteArrayCodec.INSTANCE);
+        pubConnection = client.connectPubSub(ByteArrayCodec.INSTANCE);
 
-        RedisPubSubListener<String, String> listener = new RedisPubSubAdapter<String, String>() {
+        RedisPubSubListener<byte[], byte[]> listener = new RedisPubSubAdapter<byte[], byte[]>() {
             @Override
-            public void message(String channel, String data) {
-                deliveryCallback(channel, data);
+            public void message(byte[] channel, byte[] message) {
+                deliveryCallback(new String(channel, StandardCharsets.UTF_8), message);
             }
         };
 
@@ -69,60 +110,397 @@ public class RedisManager extends ProtonManager {
 
         subCommands = subConnection.sync();
         pubCommands = pubConnection.sync();
+        pubAsyncCommands = pubConnection.async();
+
+        registryConnection = client.connect();
+        registry = new RedisIdRegistry(registryConnection);
+        blobConnection = client.connect(ByteArrayCodec.INSTANCE);
+        setBlobStore(new RedisBlobStore(blobConnection)); //Always able to receive claim checks, sending them is configured
+        registry.preload(RedisIdRegistry.CONTEXTS);
+        registry.preload(RedisIdRegistry.NAMES);
 
     }
 
-    protected void deliveryCallback(String channelString, String json) {
-        RedisChannel channel = RedisChannel.fromString(channelString);
+    protected void deliveryCallback(String channelString, byte[] message) {
+        RedisChannel channel = this.channelCache.get(channelString);
+        if (channel == null) {
+            channel = parseChannel(channelString);
+            if (channel == null) {
+                getLogger().warning(String.format("Received message on unknown channel %s", channelString));
+                return;
+            }
+            this.channelCache.put(channelString, channel);
+        }
         MessageContext context = channel.context;
-        RedisDataWrapper wrapper = gson.fromJson(json, RedisDataWrapper.class);
+        String recipient = channel.recipient;
 
-        String jsonData = new String(wrapper.data, StandardCharsets.UTF_8);
+        if (RedisEnvelope.isEnvelope(message)) {
+            RedisEnvelope envelope;
+            try {
+                envelope = RedisEnvelope.fromBytes(message);
+            } catch (Exception e) {
+                getLogger().warning(String.format("Unable to read message on channel %s: %s", channelString, e.getMessage()));
+                return;
+            }
 
-        String recipient = channel.recipient;
-        String senderName = wrapper.senderName;
-        UUID senderID = wrapper.senderID;
+            if (envelope.senderName != null) {
+                notifyHandlers(recipient, envelope.senderName, envelope, context);
+                return;
+            }
+
+            String senderName;
+            if (this.awaitingNames.isEmpty() && (senderName = this.registry.cachedValue(RedisIdRegistry.NAMES, envelope.senderNameID)) != null) {
+                notifyHandlers(recipient, senderName, envelope, context);
+            } else {
+                deliverWhenNamed(new PendingDelivery(recipient, envelope, context));
+            }
+        } else { //Sent by a client which still uses the JSON wrapper
+            RedisDataWrapper wrapper = gson.fromJson(new String(message, StandardCharsets.UTF_8), RedisDataWrapper.class);
+            List<String> senderGroups = wrapper.senderGroups == null ? Collections.emptyList() : Arrays.asList(wrapper.senderGroups);
+            Map<String, String> headers = wrapper.headers == null ? Collections.emptyMap() : wrapper.headers;
+            notifyHandlers(recipient, wrapper.senderName, wrapper.senderID, senderGroups, context, wrapper.codec, wrapper.flags, headers, wrapper.data);
+        }
+    }
+
+    /**
+     * Deliver a message once the name of its sender id is known. Messages of a sender whose name is being looked up
+     * wait in a queue, so they are still delivered in the order they arrived
+     */
+    private void deliverWhenNamed(PendingDelivery delivery) {
+        int senderNameID = delivery.envelope.senderNameID;
+        String senderName;
+        synchronized (this.awaitingNames) {
+            List<PendingDelivery> waiting = this.awaitingNames.get(senderNameID);
+            if (waiting != null) {
+                waiting.add(delivery);
+                return;
+            }
+            senderName = this.registry.cachedValue(RedisIdRegistry.NAMES, senderNameID);
+            if (senderName == null) {
+                waiting = new ArrayList<>();
+                waiting.add(delivery);
+                this.awaitingNames.put(senderNameID, waiting);
+            }
+        }
+        if (senderName != null) {
+            notifyHandlers(delivery.recipient, senderName, delivery.envelope, delivery.context);
+            return;
+        }
+        //First message from this sender, we are on a redis thread so look it up without blocking
+        this.registry.valueFor(RedisIdRegistry.NAMES, senderNameID).whenComplete((name, throwable) -> deliverWaiting(senderNameID, name));
+    }
+
+    private void deliverWaiting(int senderNameID, String senderName) {
+        while (true) {
+            List<PendingDelivery> waiting;
+            synchronized (this.awaitingNames) {
+                waiting = this.awaitingNames.get(senderNameID);
+                if (waiting.isEmpty()) { //Later messages find the name in the cache
+                    this.awaitingNames.remove(senderNameID);
+                    return;
+                }
+                this.awaitingNames.put(senderNameID, new ArrayList<>()); //Messages arriving meanwhile go after these
+            }
+            if (senderName == null) {
+                getLogger().warning(String.format("Dropped %d messages from unknown sender id %d", waiting.size(), senderNameID));
+                continue;
+            }
+            for (PendingDelivery delivery : waiting) {
+                notifyHandlers(delivery.recipient, senderName, delivery.envelope, delivery.context);
+            }
+        }
+    }
+
+    private void notifyHandlers(String recipient, String senderName, RedisEnvelope envelope, MessageContext context) {
+        List<String> senderGroups = envelope.senderGroups == null ? Collections.emptyList() : envelope.senderGroups;
+        Map<String, String> headers = envelope.headers == null ? Collections.emptyMap() : envelope.headers;
+        notifyHandlers(recipient, senderName, envelope.senderID, senderGroups, context, envelope.codec, envelope.flags, headers, envelope.data);
+    }
+
+    private RedisChannel parseChannel(String channelString) {
+        if (!RedisChannel.isCompact(channelString)) {
+            return RedisChannel.fromString(channelString);
+        }
+        //We assigned or loaded the ids of everything we subscribed to, so these never need redis
+        int[] ids = RedisChannel.parseCompact(channelString);
+        String contextString = this.registry.cachedValue(RedisIdRegistry.CONTEXTS, ids[0]);
+        String recipient = ids[1] < 0 ? "" : this.registry.cachedValue(RedisIdRegistry.NAMES, ids[1]);
+        if (contextString == null || recipient == null) {
+            return null;
+        }
+        return new RedisChannel(MessageContext.fromString(contextString), recipient);
+    }
+
+    /**
+     * Choose whether to send on compact, id based channels. The ids are assigned cluster wide through redis.
+     * Messages on either kind of channel are always received, so enable this once every client has been updated.
+     *
+     * @param compactIds true to send with ids instead of the namespace, subject, recipient and sender name
+     */
+    public void setCompactIds(boolean compactIds) {
+        this.compactIds = compactIds;
+    }
+
+    private String channelName(MessageContext context, String recipient, boolean compact) {
+        if (!compact) {
+            return new RedisChannel(context, recipient).toString();
+        }
+        int contextID = this.registry.idFor(RedisIdRegistry.CONTEXTS, context.toContextString());
+        int recipientID = recipient.isEmpty() ? -1 : this.registry.idFor(RedisIdRegistry.NAMES, recipient);
+        return RedisChannel.toCompactString(contextID, recipientID);
+    }
+
+    /**
+     * Choose the format messages are published in. Messages in either format are always received,
+     * so enable this once every client has been updated.
+     *
+     * @param binaryEnvelope true to send the binary {@link RedisEnvelope}, false for the JSON {@link RedisDataWrapper}
+     */
+    public void setBinaryEnvelope(boolean binaryEnvelope) {
+        this.binaryEnvelope = binaryEnvelope;
+    }
+
+    /**
+     * Choose whether binary envelopes carry the groups of this client and the headers of each message, which
+     * {@link me.drepic.proton.common.message.MessageHandler} filters need. The JSON format always carries them.
+     * Envelopes with metadata can only be read by updated clients, so enable this once every client has been updated.
+     * <br>Until then messages with headers, like those of a {@link me.drepic.proton.common.message.KeyedMessage}, are still
+     * sent in the JSON format so their headers arrive.
+     *
+     * @param envelopeMetadata true to send the groups and headers in binary envelopes
+     */
+    public void setEnvelopeMetadata(boolean envelopeMetadata) {
+        this.envelopeMetadata = envelopeMetadata;
+    }
+
+    private byte[] wrap(String sender, UUID senderID, byte codec, byte flags, Map<String, String> headers, byte[] data) {
+        if (this.binaryEnvelope && (this.envelopeMetadata || headers.isEmpty())) { //Headers may not be left out, JSON carries them
+            if (!this.envelopeMetadata && this.groups.length > 0 && !this.warnedGroups) {
+                this.warnedGroups = true;
+                getLogger().warning("Binary envelopes without metadata don't carry the groups of this client, " +
+                        "handlers filtering on sender groups won't match its messages. Enable redis.envelopeMetadata once every client is updated.");
+            }
+            boolean ownMessage = sender.equals(this.name) && senderID.equals(this.id);
+            if (ownMessage && headers.isEmpty()) {
+                return RedisEnvelope.toBytes(senderSection(this.compactIds, this.envelopeMetadata), codec, flags, data);
+            }
+            List<String> senderGroups = this.envelopeMetadata ? Arrays.asList(this.groups) : null;
+            Map<String, String> envelopeHeaders = this.envelopeMetadata ? headers : null;
+            if (this.compactIds) {
+                return new RedisEnvelope(this.registry.idFor(RedisIdRegistry.NAMES, sender), senderID, codec, flags, data, senderGroups, envelopeHeaders).toBytes();
+            }
+            return new RedisEnvelope(sender, senderID, codec, flags, data, senderGroups, envelopeHeaders).toBytes();
+        }
+        return gson.toJson(new RedisDataWrapper(sender, senderID, codec, flags, data,
+                this.groups.length == 0 ? null : this.groups, headers.isEmpty() ? null : headers)).getBytes(StandardCharsets.UTF_8);
+    }
 
-        notifyHandlers(recipient, senderName, senderID, context, jsonData);
+    /**
+     * Gather publishes into pipelined batches instead of waiting for a round trip to redis per message.
+     * A message goes out right away when nothing is in flight, otherwise it joins the next batch, which is sent
+     * when it is full, when the replies of the previous batch arrived or when the linger time ran out.
+     * <br><b>NOTE: </b>While batching, send and broadcast don't wait for redis and only log failures, use sendAsync to learn about them.
+     *
+     * @param maxBatchSize The most messages sent together, 0 or less to publish each message on its own
+     * @param lingerMicros How long a message may wait for its batch while an earlier batch is in flight
+     */
+    public void setPublishBatching(int maxBatchSize, long lingerMicros) {
+        RedisBatchPublisher publisher = this.batchPublisher;
+        if (maxBatchSize <= 0) {
+            this.batchPublisher = null;
+            if (publisher != null) {
+                publisher.close();
+            }
+        } else if (publisher != null) {
+            publisher.setLimits(maxBatchSize, lingerMicros);
+        } else {
+            this.batchPublisher = new RedisBatchPublisher(client.connect(ByteArrayCodec.INSTANCE), maxBatchSize, lingerMicros);
+        }
+    }
+
+    /**
+     * @return long The batches sent while batching, 0 when not batching
+     */
+    public long getPublishBatches() {
+        RedisBatchPublisher publisher = this.batchPublisher;
+        return publisher == null ? 0 : publisher.getBatches();
+    }
+
+    /**
+     * @return double The average number of messages per batch, 0 when not batching
+     */
+    public double getAveragePublishBatchSize() {
+        RedisBatchPublisher publisher = this.batchPublisher;
+        return publisher == null ? 0 : publisher.getAverageBatchSize();
+    }
+
+    /**
+     * @return long The batches sent because the linger time ran out, 0 when not batching
+     * @see RedisBatchPublisher#getLingerFlushes()
+     */
+    public long getLingerFlushes() {
+        RedisBatchPublisher publisher = this.batchPublisher;
+        return publisher == null ? 0 : publisher.getLingerFlushes();
+    }
+
+    private void publish(byte[] channel, byte[] message) {
+        RedisBatchPublisher publisher = this.batchPublisher;
+        if (publisher == null) {
+            pubCommands.publish(channel, message);
+            return;
+        }
+        publisher.publish(channel, message).whenComplete((receivers, throwable) -> {
+            if (throwable != null) {
+                getLogger().log(Level.WARNING, String.format("Failed to publish message on channel %s", new String(channel, StandardCharsets.UTF_8)), throwable);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> publishAsync(byte[] channel, byte[] message) {
+        RedisBatchPublisher publisher = this.batchPublisher;
+        return published(publisher == null ? pubAsyncCommands.publish(channel, message) : publisher.publish(channel, message));
+    }
+
+    /**
+     * @return byte[] The name of the channel to publish on, built once per context and recipient
+     */
+    private byte[] publishChannel(MessageContext context, String recipient) {
+        ChannelNames names = this.publishChannels.get(context, recipient);
+        if (!this.compactIds) {
+            return names.name;
+        }
+        byte[] compactName = names.compactName;
+        if (compactName == null) {
+            compactName = channelName(context, recipient, true).getBytes(StandardCharsets.UTF_8);
+            names.compactName = compactName;
+        }
+        return compactName;
+    }
+
+    /**
+     * @return byte[] The envelope section of this client without headers, see {@link RedisEnvelope#senderSection()}
+     */
+    private byte[] senderSection(boolean compact, boolean metadata) {
+        int index = (compact ? 1 : 0) | (metadata ? 2 : 0);
+        byte[] section = this.senderSections.get(index);
+        if (section == null) {
+            List<String> senderGroups = metadata ? Arrays.asList(this.groups) : null;
+            Map<String, String> headers = metadata ? Collections.emptyMap() : null;
+            RedisEnvelope envelope = compact
+                    ? new RedisEnvelope(this.registry.idFor(RedisIdRegistry.NAMES, this.name), this.id, GsonCodec.ID, MessageFlags.NONE, NO_DATA, senderGroups, headers)
+                    : new RedisEnvelope(this.name, this.id, GsonCodec.ID, MessageFlags.NONE, NO_DATA, senderGroups, headers);
+            section = envelope.senderSection();
+            this.senderSections.set(index, section);
+        }
+        return section;
     }
 
     @Override
-    protected void sendData(String sender, UUID senderID, String recipient, MessageContext context, byte[] data) {
-        RedisChannel channel = new RedisChannel(context, recipient);
-        RedisDataWrapper wrapper = new RedisDataWrapper(sender, senderID, data);
-        String channelString = channel.toString();
-        String wrapperString = gson.toJson(wrapper);
+    protected void sendData(String sender, UUID senderID, String recipient, MessageContext context, byte codec, byte flags,
+                            Map<String, String> headers, byte[] data) {
+        publish(publishChannel(context, recipient), wrap(sender, senderID, codec, flags, headers, data));
+    }
 
-        pubCommands.publish(channelString, wrapperString);
+    @Override
+    protected void broadcastData(String sender, UUID senderID, MessageContext context, byte codec, byte flags,
+                                 Map<String, String> headers, byte[] data) {
+        publish(publishChannel(context, ""), wrap(sender, senderID, codec, flags, headers, data));
     }
 
     @Override
-    protected void broadcastData(String sender, UUID senderID, MessageContext context, byte[] data) {
-        RedisChannel channel = new RedisChannel(context, "");
-        RedisDataWrapper wrapper = new RedisDataWrapper(sender, senderID, data);
-        String channelString = channel.toString();
-        String wrapperString = gson.toJson(wrapper);
+    protected void multicastData(String sender, UUID senderID, Collection<String> recipients, MessageContext context, byte codec, byte flags,
+                                 Map<String, String> headers, byte[] data) throws IOException {
+        byte[] message = wrap(sender, senderID, codec, flags, headers, data); //Channels name the recipient, the message is the same
+        if (this.batchPublisher != null) {
+            for (String recipient : recipients) {
+                publish(publishChannel(context, recipient), message);
+            }
+            return;
+        }
+
+        RedisFuture<?>[] replies = new RedisFuture<?>[recipients.size()];
+        int i = 0;
+        for (String recipient : recipients) { //Written without waiting, so all of them share one round trip
+            replies[i++] = pubAsyncCommands.publish(publishChannel(context, recipient), message);
+        }
+        if (!LettuceFutures.awaitAll(MULTICAST_TIMEOUT_SECONDS, TimeUnit.SECONDS, replies)) {
+            throw new IOException("Timed out waiting for redis to accept the messages");
+        }
+    }
 
-        pubCommands.publish(channelString, wrapperString);
+    @Override
+    protected CompletableFuture<Void> sendDataAsync(String sender, UUID senderID, String recipient, MessageContext context, byte codec, byte flags,
+                                                    Map<String, String> headers, byte[] data) {
+        return publishAsync(publishChannel(context, recipient), wrap(sender, senderID, codec, flags, headers, data));
+    }
+
+    @Override
+    protected CompletableFuture<Void> broadcastDataAsync(String sender, UUID senderID, MessageContext context, byte codec, byte flags,
+                                                         Map<String, String> headers, byte[] data) {
+        return publishAsync(publishChannel(context, ""), wrap(sender, senderID, codec, flags, headers, data));
+    }
+
+    private static CompletableFuture<Void> published(RedisFuture<Long> reply) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        reply.whenComplete((receivers, throwable) -> {
+            if (throwable == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(new MessageSendException(throwable instanceof Exception ? (Exception) throwable : new Exception(throwable)));
+            }
+        });
+        return future;
     }
 
     @Override
     protected void bindRecipient(MessageContext context, String recipient) {
-        RedisChannel channel = new RedisChannel(context, recipient);
-        subCommands.subscribe(channel.toString());
+        subscribe(context, recipient);
     }
 
     @Override
     protected void bindBroadcast(MessageContext context) {
-        RedisChannel channel = new RedisChannel(context, "");
-        subCommands.subscribe(channel.toString());
+        subscribe(context, "");
+    }
+
+    private void subscribe(MessageContext context, String recipient) {
+        String channel = channelName(context, recipient, false);
+        String compactChannel = channelName(context, recipient, true);
+        this.channelCache.put(channel, new RedisChannel(context, recipient));
+        this.channelCache.put(compactChannel, new RedisChannel(context, recipient));
+        subCommands.subscribe(channel.getBytes(StandardCharsets.UTF_8), compactChannel.getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
     protected void tearDown() {
+        cancelTasks();
+        registryConnection.close();
+        blobConnection.close();
+        if (batchPublisher != null) {
+            batchPublisher.close();
+        }
         pubConnection.close();
         subConnection.close();
         client.shutdown();
     }
 
+    static class PendingDelivery {
+        final String recipient;
+        final RedisEnvelope envelope;
+        final MessageContext context;
+
+        PendingDelivery(String recipient, RedisEnvelope envelope, MessageContext context) {
+            this.recipient = recipient;
+            this.envelope = envelope;
+            this.context = context;
+        }
+    }
+
+    static class ChannelNames {
+        final byte[] name;
+        volatile byte[] compactName; //Once the ids are known
+
+        ChannelNames(MessageContext context, String recipient) {
+            this.name = new RedisChannel(context, recipient).toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.message.MessageAttributes;
+import me.drepic.proton.common.message.Priority;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A registered {@link me.drepic.proton.common.message.MessageHandler}, already wrapped to run on the right thread
+ */
+class RegisteredHandler {
+
+    final BiConsumer<LazyPayload, MessageAttributes> consumer;
+    final boolean async; //Otherwise it runs on the main thread
+    final boolean streaming; //Takes an InputStream, so it starts as soon as a chunked transfer does
+    final Priority priority;
+    final HandlerFilter filter; //Null when the handler receives every message
+
+    RegisteredHandler(BiConsumer<LazyPayload, MessageAttributes> consumer, boolean async, boolean streaming, Priority priority, HandlerFilter filter) {
+        this.consumer = consumer;
+        this.async = async;
+        this.streaming = streaming;
+        this.priority = priority;
+        this.filter = filter;
+    }
+
+    boolean accepts(MessageAttributes messageAttributes) {
+        return this.filter == null || this.filter.test(messageAttributes);
+    }
+}
@@ -0,0 +1,104 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.adapters.SchedulerAdapter;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks on the async scheduler, one stripe at a time per key. Tasks of the same key run in the order they were
+ * submitted and never concurrently, tasks of different stripes run in parallel.
+ * <br>The scheduler only ever sees one task per stripe, so each stripe bounds its own queue and rejects tasks beyond it.
+ */
+class StripedExecutor {
+
+    private final Stripe[] stripes;
+    private final SchedulerAdapter scheduler;
+    private final Logger logger;
+    private final int maxQueued; //Per stripe
+    private final AtomicLong rejected;
+
+    StripedExecutor(SchedulerAdapter scheduler, Logger logger, int stripeCount, int maxQueued) {
+        this.scheduler = scheduler;
+        this.logger = logger;
+        this.maxQueued = maxQueued;
+        this.rejected = new AtomicLong();
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException When the stripe of the key is full or the scheduler has no room for it, the task is not run
+     */
+    void execute(Object key, Runnable task) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        Stripe stripe = this.stripes[(hash & 0x7FFFFFFF) % this.stripes.length];
+        if (stripe.size.incrementAndGet() > this.maxQueued) {
+            stripe.size.decrementAndGet();
+            this.rejected.incrementAndGet();
+            throw new RejectedExecutionException(String.format("%d ordered MessageHandler calls are already waiting for the same stripe", this.maxQueued));
+        }
+        stripe.tasks.offer(task);
+        if (stripe.scheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.runTaskAsynchronously(stripe);
+            } catch (RuntimeException e) {
+                if (stripe.tasks.remove(task)) { //Nobody runs the stripe while scheduled is set
+                    stripe.size.decrementAndGet();
+                }
+                stripe.scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return long The tasks rejected because their stripe was full
+     */
+    long getRejected() {
+        return this.rejected.get();
+    }
+
+    private class Stripe implements Runnable {
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger(); //Waiting in tasks, ConcurrentLinkedQueue.size() is linear
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void schedule() {
+            if (this.scheduled.compareAndSet(false, true)) {
+                try {
+                    scheduler.runTaskAsynchronously(this);
+                } catch (RuntimeException e) { //What is left runs with the next task of the stripe
+                    this.scheduled.set(false);
+                    logger.log(Level.WARNING, "Failed to reschedule ordered MessageHandlers", e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = this.tasks.poll()) != null) {
+                this.size.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "MessageHandler failed", e);
+                }
+            }
+            this.scheduled.set(false);
+            if (!this.tasks.isEmpty()) { //Submitted after the last poll but before scheduled was cleared
+                schedule();
+            }
+        }
+    }
+}
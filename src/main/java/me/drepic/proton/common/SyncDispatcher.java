@@ -0,0 +1,106 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.message.Priority;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs synchronous MessageHandlers from one repeating main thread task instead of scheduling a task per delivery.
+ * Each tick runs queued handlers until the time budget is used up, the rest waits for the next tick.
+ * <br>Every {@link Priority} has its own lane. Lanes take turns, each running up to its weight in handlers,
+ * so higher priorities get most of the budget without starving lower ones.
+ */
+class SyncDispatcher implements Runnable {
+
+    private static final long BACKLOG_WARNING_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+
+    private static final int[] WEIGHTS = {1, 4, 16}; //Handlers per turn, indexed by Priority ordinal
+
+    private final Queue<Runnable>[] lanes; //Lock-free, filled by the broker threads
+    private final AtomicInteger backlog;
+    private final Logger logger;
+    private volatile long budgetNanos;
+    private volatile int backlogWarning; //Warn when at least this many handlers are left over after a tick
+    private long lastWarning;
+    private int lane; //Whose turn it is, kept across ticks so a short budget still reaches every lane
+    private int taken;
+
+    @SuppressWarnings("unchecked")
+    SyncDispatcher(Logger logger) {
+        this.lanes = new Queue[WEIGHTS.length];
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.lane = this.lanes.length - 1;
+        this.backlog = new AtomicInteger();
+        this.logger = logger;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        this.backlogWarning = 1000;
+        this.lastWarning = System.nanoTime() - BACKLOG_WARNING_INTERVAL;
+    }
+
+    void submit(Runnable handler, Priority priority) {
+        this.lanes[priority.ordinal()].offer(handler);
+        this.backlog.incrementAndGet();
+    }
+
+    /**
+     * @return Runnable The next handler by weighted turns, from the highest priority down, or null when every lane is empty
+     */
+    private Runnable next() {
+        for (int i = 0; i <= this.lanes.length; i++) { //The current lane may have used its turn, then every lane once
+            if (this.taken < WEIGHTS[this.lane]) {
+                Runnable handler = this.lanes[this.lane].poll();
+                if (handler != null) {
+                    this.taken++;
+                    return handler;
+                }
+            }
+            this.lane = this.lane == 0 ? this.lanes.length - 1 : this.lane - 1;
+            this.taken = 0;
+        }
+        return null;
+    }
+
+    /**
+     * Drain the queue, called once per tick on the main thread
+     */
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long deadline = start + this.budgetNanos;
+        Runnable handler;
+        while ((handler = next()) != null) { //Always runs at least one, so the queue keeps moving
+            this.backlog.decrementAndGet();
+            try {
+                handler.run();
+            } catch (Exception e) {
+                this.logger.log(Level.SEVERE, "MessageHandler failed", e);
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+
+        int remaining = this.backlog.get();
+        if (remaining >= this.backlogWarning && start - this.lastWarning >= BACKLOG_WARNING_INTERVAL) {
+            this.lastWarning = start;
+            this.logger.warning(String.format("%d synchronous MessageHandlers are waiting for the main thread, " +
+                    "consider making them async or raising dispatch.syncBudgetMillis.", remaining));
+        }
+    }
+
+    void setBudget(long budgetMillis, int backlogWarning) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.backlogWarning = backlogWarning;
+    }
+
+    int getBacklog() {
+        return this.backlog.get();
+    }
+}
@@ -0,0 +1,179 @@
+package me.drepic.proton.common.adapters;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs async MessageHandlers on its own executor instead of the platform's unbounded async pool, everything else
+ * is left to the platform scheduler.
+ * <br>Uses a virtual thread per handler when the JVM supports them (Java 21+), so blocking handlers don't hold platform
+ * threads, otherwise a fixed number of platform threads.
+ * <br>Either way it holds at most maxThreads + queueSize tasks, running or waiting. Tasks beyond that are rejected
+ * with a {@link RejectedExecutionException} instead of waiting, the broker thread handing them over never blocks.
+ */
+public class ExecutorSchedulerAdapter implements SchedulerAdapter {
+
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private final SchedulerAdapter platform;
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final int capacity;
+    private final int queueSize;
+
+    private final AtomicInteger pending; //Queued and in flight, never above capacity
+    private final AtomicInteger queued;
+    private final AtomicInteger inFlight;
+    private final AtomicLong rejected;
+
+    /**
+     * @param platform   The platform scheduler, used for synchronous and timer tasks
+     * @param virtual    Whether to try virtual threads first
+     * @param maxThreads The size of the platform thread pool, used when virtual threads are off or unsupported
+     */
+    public ExecutorSchedulerAdapter(SchedulerAdapter platform, boolean virtual, int maxThreads) {
+        this(platform, virtual, maxThreads, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param platform   The platform scheduler, used for synchronous and timer tasks
+     * @param virtual    Whether to try virtual threads first
+     * @param maxThreads The size of the platform thread pool, used when virtual threads are off or unsupported
+     * @param queueSize  The tasks which may wait for a thread, further tasks are rejected
+     */
+    public ExecutorSchedulerAdapter(SchedulerAdapter platform, boolean virtual, int maxThreads, int queueSize) {
+        if (maxThreads <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("maxThreads and queueSize must be positive");
+        }
+        this.platform = platform;
+        ExecutorService virtualExecutor = virtual ? newVirtualThreadExecutor() : null;
+        this.virtual = virtualExecutor != null;
+        this.executor = virtualExecutor != null ? virtualExecutor : newBoundedExecutor(maxThreads, queueSize);
+        this.capacity = maxThreads + queueSize;
+        this.queueSize = queueSize;
+        this.pending = new AtomicInteger();
+        this.queued = new AtomicInteger();
+        this.inFlight = new AtomicInteger();
+        this.rejected = new AtomicLong();
+    }
+
+    @Override
+    public void runTask(Runnable runnable) {
+        this.platform.runTask(runnable);
+    }
+
+    /**
+     * @throws RejectedExecutionException When maxThreads + queueSize tasks are already running or waiting, or after shutdown
+     */
+    @Override
+    public void runTaskAsynchronously(Runnable runnable) {
+        if (this.pending.incrementAndGet() > this.capacity) {
+            this.pending.decrementAndGet();
+            this.rejected.incrementAndGet();
+            throw new RejectedExecutionException(String.format("All %d async MessageHandler slots are taken", this.capacity));
+        }
+        this.queued.incrementAndGet();
+        try {
+            this.executor.execute(() -> {
+                this.queued.decrementAndGet();
+                this.inFlight.incrementAndGet();
+                try {
+                    runnable.run();
+                } finally {
+                    this.inFlight.decrementAndGet();
+                    this.pending.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) { //Shut down, or a task which just finished still holds its thread
+            this.queued.decrementAndGet();
+            this.pending.decrementAndGet();
+            if (!this.executor.isShutdown()) {
+                this.rejected.incrementAndGet();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public TaskHandle runTaskTimer(Runnable runnable, long delayMillis, long periodMillis) {
+        return this.platform.runTaskTimer(runnable, delayMillis, periodMillis);
+    }
+
+    @Override
+    public TaskHandle runTaskTimerAsynchronously(Runnable runnable, long delayMillis, long periodMillis) {
+        return this.platform.runTaskTimerAsynchronously(runnable, delayMillis, periodMillis);
+    }
+
+    /**
+     * @return boolean Whether handlers run on virtual threads
+     */
+    public boolean isVirtual() {
+        return this.virtual;
+    }
+
+    /**
+     * @return int The number of tasks waiting for a thread
+     */
+    public int getQueued() {
+        return this.queued.get();
+    }
+
+    /**
+     * @return int The number of tasks currently running
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * @return long The number of tasks rejected because maxThreads + queueSize were already taken
+     */
+    public long getRejected() {
+        return this.rejected.get();
+    }
+
+    /**
+     * @return int The tasks which may wait for a thread
+     */
+    public int getQueueSize() {
+        return this.queueSize;
+    }
+
+    /**
+     * Stop accepting tasks, running tasks are given a few seconds to finish
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                this.executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            this.executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try { //Compiled for Java 17, look the factory up at runtime
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newBoundedExecutor(int maxThreads, int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "Proton Handler #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -4,4 +4,7 @@ public interface SchedulerAdapter {
 
     void runTask(Runnable runnable);
     void runTaskAsynchronously(Runnable runnable);
+
+    TaskHandle runTaskTimer(Runnable runnable, long delayMillis, long periodMillis);
+    TaskHandle runTaskTimerAsynchronously(Runnable runnable, long delayMillis, long periodMillis);
 }
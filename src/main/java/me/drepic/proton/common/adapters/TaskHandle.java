@@ -0,0 +1,6 @@
+package me.drepic.proton.common.adapters;
+
+public interface TaskHandle {
+
+    void cancel();
+}
@@ -0,0 +1,44 @@
+package me.drepic.proton.common.blob;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shared storage for payloads which are too large to publish through the broker.
+ * The sender stores the payload once and only a key is published, every recipient fetches the payload with it.
+ *
+ * @see me.drepic.proton.common.ProtonManager#setClaimCheck
+ */
+public interface BlobStore {
+
+    /**
+     * Store a payload
+     *
+     * @param data       The payload
+     * @param ttlMillis  How long the payload must stay available to recipients
+     * @return String The key recipients fetch the payload with
+     */
+    String put(byte[] data, long ttlMillis) throws IOException;
+
+    /**
+     * @param key The key returned by {@link BlobStore#put}
+     * @return byte[] The payload, or null if it expired
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Fetch a payload without blocking the caller, used before handing a claim check to synchronous handlers.
+     * By default it calls {@link BlobStore#get} on the calling thread
+     *
+     * @param key The key returned by {@link BlobStore#put}
+     * @return CompletableFuture The payload, or null if it expired
+     */
+    default CompletableFuture<byte[]> getAsync(String key) {
+        try {
+            return CompletableFuture.completedFuture(get(key));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+}
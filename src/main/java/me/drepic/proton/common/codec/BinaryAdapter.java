@@ -0,0 +1,14 @@
+package me.drepic.proton.common.codec;
+
+import java.io.IOException;
+
+/**
+ * Writes and reads a single type for the {@link BinaryCodec}. Adapters are built once per type and cached.
+ */
+interface BinaryAdapter<T> {
+
+    void write(BinaryWriter out, T value) throws IOException;
+
+    T read(BinaryReader in) throws IOException;
+
+}
@@ -0,0 +1,479 @@
+package me.drepic.proton.common.codec;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Builds and caches the {@link BinaryAdapter} for each type.
+ * <br>Plain objects are written field by field (superclass fields first, then by field name), the same
+ * fields Gson would serialize. Types which cannot be described structurally, such as interfaces, type variables
+ * or JDK internals, fall back to length-prefixed JSON so that every Gson-serializable message still works.
+ */
+final class BinaryAdapters {
+
+    private final Gson gson;
+    private final Map<Type, BinaryAdapter<?>> cache;
+    private final Map<Type, BinaryAdapter<?>> building;
+
+    BinaryAdapters(Gson gson) {
+        this.gson = gson;
+        this.cache = new ConcurrentHashMap<>();
+        this.building = new HashMap<>();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> BinaryAdapter<T> get(Type type) {
+        BinaryAdapter<?> adapter = cache.get(type);
+        if (adapter != null) {
+            return (BinaryAdapter<T>) adapter;
+        }
+        synchronized (this) { //Building is rare, keep it simple so no thread sees a half built adapter
+            adapter = cache.get(type);
+            if (adapter == null) {
+                adapter = building.get(type);
+            }
+            if (adapter != null) {
+                return (BinaryAdapter<T>) adapter;
+            }
+            //Placeholder so that self referencing types resolve to the adapter being built
+            DeferredAdapter<Object> deferred = new DeferredAdapter<>();
+            building.put(type, deferred);
+            try {
+                BinaryAdapter<Object> created = (BinaryAdapter<Object>) create(type);
+                deferred.delegate = created;
+                cache.put(type, created);
+                return (BinaryAdapter<T>) created;
+            } finally {
+                building.remove(type);
+            }
+        }
+    }
+
+    private BinaryAdapter<?> create(Type type) {
+        Class<?> raw = rawType(type);
+
+        if (raw.isPrimitive()) {
+            return primitive(raw);
+        }
+        if (isBoxed(raw)) {
+            return nullable(primitive(unbox(raw)));
+        }
+        if (raw == String.class) {
+            return STRING;
+        }
+        if (raw == UUID.class) {
+            return nullable(UUID_ADAPTER);
+        }
+        if (raw.isEnum()) {
+            return enumAdapter(raw);
+        }
+        if (raw == byte[].class) {
+            return BYTE_ARRAY;
+        }
+        if (raw.isArray()) {
+            Type component = type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+            return arrayAdapter(rawType(component), get(component));
+        }
+        if (Collection.class.isAssignableFrom(raw)) {
+            return collectionAdapter(raw, get(typeArgument(type, 0)));
+        }
+        if (Map.class.isAssignableFrom(raw)) {
+            return mapAdapter(raw, get(typeArgument(type, 0)), get(typeArgument(type, 1)));
+        }
+        if (type instanceof TypeVariable || type instanceof WildcardType || raw == Object.class
+                || raw.isInterface() || Modifier.isAbstract(raw.getModifiers())
+                || raw.getName().startsWith("java.") || raw.getName().startsWith("javax.")) {
+            return nullable(jsonAdapter(type));
+        }
+        if (raw.isRecord()) {
+            return nullable(recordAdapter(raw));
+        }
+        return nullable(objectAdapter(raw));
+    }
+
+    /*
+        Primitives
+     */
+
+    private static final BinaryAdapter<Boolean> BOOLEAN = adapter(BinaryWriter::writeBoolean, BinaryReader::readBoolean);
+    private static final BinaryAdapter<Byte> BYTE = adapter((out, v) -> out.writeByte(v), in -> (byte) in.readByte());
+    private static final BinaryAdapter<Short> SHORT = adapter((out, v) -> out.writeShort(v), BinaryReader::readShort);
+    private static final BinaryAdapter<Character> CHAR = adapter((out, v) -> out.writeShort(v), in -> (char) in.readShort());
+    private static final BinaryAdapter<Integer> INT = adapter(BinaryWriter::writeInt, BinaryReader::readInt);
+    private static final BinaryAdapter<Long> LONG = adapter(BinaryWriter::writeLong, BinaryReader::readLong);
+    private static final BinaryAdapter<Float> FLOAT = adapter(BinaryWriter::writeFloat, BinaryReader::readFloat);
+    private static final BinaryAdapter<Double> DOUBLE = adapter(BinaryWriter::writeDouble, BinaryReader::readDouble);
+    private static final BinaryAdapter<String> STRING = adapter(BinaryWriter::writeString, BinaryReader::readString);
+    private static final BinaryAdapter<UUID> UUID_ADAPTER = adapter((out, v) -> {
+        out.writeLong(v.getMostSignificantBits());
+        out.writeLong(v.getLeastSignificantBits());
+    }, in -> new UUID(in.readLong(), in.readLong()));
+    private static final BinaryAdapter<byte[]> BYTE_ARRAY = adapter((out, v) -> {
+        if (v == null) {
+            out.writeVarInt(0);
+            return;
+        }
+        out.writeVarInt(v.length + 1);
+        out.writeBytes(v);
+    }, in -> {
+        int length = in.readVarInt() - 1;
+        return length < 0 ? null : in.readBytes(length);
+    });
+
+    private static BinaryAdapter<?> primitive(Class<?> klass) {
+        if (klass == Boolean.TYPE) return BOOLEAN;
+        if (klass == Byte.TYPE) return BYTE;
+        if (klass == Short.TYPE) return SHORT;
+        if (klass == Character.TYPE) return CHAR;
+        if (klass == Integer.TYPE) return INT;
+        if (klass == Long.TYPE) return LONG;
+        if (klass == Float.TYPE) return FLOAT;
+        if (klass == Double.TYPE) return DOUBLE;
+        throw new IllegalArgumentException("Unsupported primitive " + klass);
+    }
+
+    private static boolean isBoxed(Class<?> klass) {
+        return klass == Boolean.class || klass == Byte.class || klass == Short.class || klass == Character.class
+                || klass == Integer.class || klass == Long.class || klass == Float.class || klass == Double.class;
+    }
+
+    private static Class<?> unbox(Class<?> klass) {
+        try {
+            return (Class<?>) klass.getField("TYPE").get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /*
+        Composite types
+     */
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static BinaryAdapter<?> enumAdapter(Class<?> klass) {
+        Class<? extends Enum> enumClass = (Class<? extends Enum>) klass;
+        return adapter((out, v) -> out.writeString(v == null ? null : ((Enum<?>) v).name()), in -> {
+            String name = in.readString();
+            return name == null ? null : Enum.valueOf(enumClass, name);
+        });
+    }
+
+    private static BinaryAdapter<Object> arrayAdapter(Class<?> componentType, BinaryAdapter<Object> component) {
+        return adapter((out, v) -> {
+            if (v == null) {
+                out.writeVarInt(0);
+                return;
+            }
+            int length = Array.getLength(v);
+            out.writeVarInt(length + 1);
+            for (int i = 0; i < length; i++) {
+                component.write(out, Array.get(v, i));
+            }
+        }, in -> {
+            int length = in.readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            in.require(length); //A forged length must not allocate more than the message could hold
+            Object array = Array.newInstance(componentType, length);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, component.read(in));
+            }
+            return array;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BinaryAdapter<Object> collectionAdapter(Class<?> klass, BinaryAdapter<Object> element) {
+        Supplier<Collection<Object>> factory;
+        if (hasNoArgConstructor(klass)) {
+            Supplier<Object> constructor = constructor(klass);
+            factory = () -> (Collection<Object>) constructor.get();
+        } else if (SortedSet.class.isAssignableFrom(klass)) {
+            factory = TreeSet::new;
+        } else if (Set.class.isAssignableFrom(klass)) {
+            factory = LinkedHashSet::new;
+        } else if (Queue.class.isAssignableFrom(klass)) {
+            factory = ArrayDeque::new;
+        } else {
+            factory = ArrayList::new;
+        }
+
+        return adapter((out, v) -> {
+            if (v == null) {
+                out.writeVarInt(0);
+                return;
+            }
+            Collection<Object> collection = (Collection<Object>) v;
+            out.writeVarInt(collection.size() + 1);
+            for (Object o : collection) {
+                element.write(out, o);
+            }
+        }, in -> {
+            int size = in.readVarInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+            in.require(size);
+            Collection<Object> collection = factory.get();
+            for (int i = 0; i < size; i++) {
+                collection.add(element.read(in));
+            }
+            return collection;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BinaryAdapter<Object> mapAdapter(Class<?> klass, BinaryAdapter<Object> key, BinaryAdapter<Object> value) {
+        Supplier<Map<Object, Object>> factory;
+        if (hasNoArgConstructor(klass)) {
+            Supplier<Object> constructor = constructor(klass);
+            factory = () -> (Map<Object, Object>) constructor.get();
+        } else if (SortedMap.class.isAssignableFrom(klass)) {
+            factory = TreeMap::new;
+        } else {
+            factory = LinkedHashMap::new;
+        }
+
+        return adapter((out, v) -> {
+            if (v == null) {
+                out.writeVarInt(0);
+                return;
+            }
+            Map<Object, Object> map = (Map<Object, Object>) v;
+            out.writeVarInt(map.size() + 1);
+            for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                key.write(out, entry.getKey());
+                value.write(out, entry.getValue());
+            }
+        }, in -> {
+            int size = in.readVarInt() - 1;
+            if (size < 0) {
+                return null;
+            }
+            in.require(size);
+            Map<Object, Object> map = factory.get();
+            for (int i = 0; i < size; i++) {
+                map.put(key.read(in), value.read(in));
+            }
+            return map;
+        });
+    }
+
+    private BinaryAdapter<Object> jsonAdapter(Type type) {
+        return adapter((out, v) -> out.writeString(gson.toJson(v, type)), in -> gson.fromJson(in.readString(), type));
+    }
+
+    private BinaryAdapter<Object> recordAdapter(Class<?> klass) {
+        RecordComponent[] components = klass.getRecordComponents();
+        Method[] accessors = new Method[components.length];
+        Class<?>[] parameterTypes = new Class<?>[components.length];
+        List<BinaryAdapter<Object>> adapters = new ArrayList<>();
+        for (int i = 0; i < components.length; i++) {
+            accessors[i] = components[i].getAccessor();
+            accessors[i].setAccessible(true);
+            parameterTypes[i] = components[i].getType();
+            adapters.add(get(components[i].getGenericType()));
+        }
+
+        Constructor<?> constructor;
+        try {
+            constructor = klass.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Record has no canonical constructor: " + klass.getName(), e);
+        }
+
+        return adapter((out, v) -> {
+            try {
+                for (int i = 0; i < accessors.length; i++) {
+                    adapters.get(i).write(out, accessors[i].invoke(v));
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new IOException(e);
+            }
+        }, in -> {
+            Object[] values = new Object[accessors.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = adapters.get(i).read(in);
+            }
+            try {
+                return constructor.newInstance(values);
+            } catch (ReflectiveOperationException e) {
+                throw new IOException(e);
+            }
+        });
+    }
+
+    private BinaryAdapter<Object> objectAdapter(Class<?> klass) {
+        List<Field> fields = new ArrayList<>();
+        Deque<Class<?>> hierarchy = new ArrayDeque<>();
+        for (Class<?> c = klass; c != null && c != Object.class; c = c.getSuperclass()) {
+            hierarchy.push(c);
+        }
+        for (Class<?> c : hierarchy) {
+            List<Field> declared = new ArrayList<>();
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                declared.add(field);
+            }
+            declared.sort(Comparator.comparing(Field::getName));
+            fields.addAll(declared);
+        }
+
+        Field[] fieldArray = fields.toArray(new Field[0]);
+        List<BinaryAdapter<Object>> adapters = new ArrayList<>();
+        for (Field field : fieldArray) {
+            adapters.add(get(field.getGenericType()));
+        }
+        Supplier<Object> constructor = constructor(klass);
+
+        return adapter((out, v) -> {
+            try {
+                for (int i = 0; i < fieldArray.length; i++) {
+                    adapters.get(i).write(out, fieldArray[i].get(v));
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException(e);
+            }
+        }, in -> {
+            Object instance = constructor.get();
+            try {
+                for (int i = 0; i < fieldArray.length; i++) {
+                    fieldArray[i].set(instance, adapters.get(i).read(in));
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException(e);
+            }
+            return instance;
+        });
+    }
+
+    /*
+        Helpers
+     */
+
+    private static <T> BinaryAdapter<T> nullable(BinaryAdapter<T> adapter) {
+        return adapter((out, v) -> {
+            out.writeBoolean(v != null);
+            if (v != null) {
+                adapter.write(out, v);
+            }
+        }, in -> in.readBoolean() ? adapter.read(in) : null);
+    }
+
+    private static boolean hasNoArgConstructor(Class<?> klass) {
+        if (klass.isInterface() || Modifier.isAbstract(klass.getModifiers())) {
+            return false;
+        }
+        try {
+            return Modifier.isPublic(klass.getDeclaredConstructor().getModifiers());
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Uses the no-args constructor when there is one, otherwise allocates without running a constructor like Gson does
+     */
+    private static Supplier<Object> constructor(Class<?> klass) {
+        try {
+            Constructor<?> constructor = klass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return () -> {
+                try {
+                    return constructor.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Unable to create " + klass.getName(), e);
+                }
+            };
+        } catch (NoSuchMethodException ignored) {
+        }
+
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            Method allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+            return () -> {
+                try {
+                    return allocateInstance.invoke(unsafe, klass);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Unable to create " + klass.getName(), e);
+                }
+            };
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("No way to create instances of " + klass.getName(), e);
+        }
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private interface Writer<T> {
+        void write(BinaryWriter out, T value) throws IOException;
+    }
+
+    private interface Reader<T> {
+        T read(BinaryReader in) throws IOException;
+    }
+
+    private static <T> BinaryAdapter<T> adapter(Writer<T> writer, Reader<T> reader) {
+        return new BinaryAdapter<T>() {
+            @Override
+            public void write(BinaryWriter out, T value) throws IOException {
+                writer.write(out, value);
+            }
+
+            @Override
+            public T read(BinaryReader in) throws IOException {
+                return reader.read(in);
+            }
+        };
+    }
+
+    private static final class DeferredAdapter<T> implements BinaryAdapter<T> {
+
+        private volatile BinaryAdapter<T> delegate;
+
+        @Override
+        public void write(BinaryWriter out, T value) throws IOException {
+            delegate.write(out, value);
+        }
+
+        @Override
+        public T read(BinaryReader in) throws IOException {
+            return delegate.read(in);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package me.drepic.proton.common.codec;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+
+/**
+ * Compact binary codec. Numbers are written fixed-width, strings, arrays, collections and maps are length-prefixed,
+ * and objects are written as their fields in a stable order, so no field names are sent.
+ * <br><b>NOTE: </b>Both clients need the same version of the message class, there is no schema evolution.
+ */
+public class BinaryCodec implements MessageCodec {
+
+    public static final byte ID = 1;
+    public static final String NAME = "binary";
+
+    private final BinaryAdapters adapters;
+
+    public BinaryCodec(Gson gson) {
+        this.adapters = new BinaryAdapters(gson);
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object data, Class<?> type) throws IOException {
+        BinaryWriter out = new BinaryWriter(64);
+        adapters.get(type).write(out, data);
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] data, Class<?> type) throws IOException {
+        return read(data, adapters.get(type));
+    }
+
+    @Override
+    public <T> TypedCodec<T> forType(Class<T> type) {
+        BinaryAdapter<T> adapter = adapters.get(type);
+        return new TypedCodec<T>() {
+            @Override
+            public byte[] encode(T data) throws IOException {
+                BinaryWriter out = new BinaryWriter(64);
+                adapter.write(out, data);
+                return out.toByteArray();
+            }
+
+            @Override
+            public T decode(byte[] data) throws IOException {
+                return read(data, adapter);
+            }
+        };
+    }
+
+    private static <T> T read(byte[] data, BinaryAdapter<T> adapter) throws IOException {
+        BinaryReader in = new BinaryReader(data);
+        T value = adapter.read(in);
+        if (!in.isFullyRead()) {
+            throw new IOException("Binary message has trailing bytes, are both clients using the same message class?");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,77 @@
+package me.drepic.proton.common.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The default codec. Bodies are sent as UTF-8 encoded JSON, which is what every Proton client understands.
+ */
+public class GsonCodec implements MessageCodec {
+
+    public static final byte ID = 0;
+    public static final String NAME = "gson";
+
+    private final Gson gson;
+
+    public GsonCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object data, Class<?> type) {
+        return gson.toJson(data, type).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Object decode(byte[] data, Class<?> type) {
+        return gson.fromJson(new String(data, StandardCharsets.UTF_8), type);
+    }
+
+    /**
+     * Resolves the {@link TypeAdapter} once and streams directly to and from the UTF-8 bytes
+     */
+    @Override
+    public <T> TypedCodec<T> forType(Class<T> type) {
+        TypeAdapter<T> adapter = gson.getAdapter(type);
+        return new TypedCodec<T>() {
+            @Override
+            public byte[] encode(T data) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+                try (JsonWriter writer = gson.newJsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                    adapter.write(writer, data);
+                }
+                return out.toByteArray();
+            }
+
+            @Override
+            public void encode(T data, OutputStream out) throws IOException {
+                JsonWriter writer = gson.newJsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                adapter.write(writer, data);
+                writer.flush(); //Leave closing the stream to the caller
+            }
+
+            @Override
+            public T decode(byte[] data) throws IOException {
+                try (JsonReader reader = gson.newJsonReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+                    reader.setLenient(true); //Same as Gson#fromJson
+                    return adapter.read(reader);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package me.drepic.proton.common.codec;
+
+import java.io.IOException;
+
+/**
+ * Converts message bodies to and from the bytes which are sent over the broker.
+ * <br>Every codec has an id which is sent along with the message, so the receiving client
+ * always decodes with the same codec the sender used, regardless of its own settings.
+ *
+ * @author Drepic
+ */
+public interface MessageCodec {
+
+    /**
+     * @return byte The id which is written into the message envelope. Must be unique per client
+     */
+    byte getId();
+
+    /**
+     * @return String The name used to select this codec in the config
+     */
+    String getName();
+
+    byte[] encode(Object data, Class<?> type) throws IOException;
+
+    Object decode(byte[] data, Class<?> type) throws IOException;
+
+    /**
+     * Create a codec for a single type. Codecs which can precompute anything for a type should override this.
+     *
+     * @param type The type which will be encoded and decoded
+     * @return TypedCodec A codec which is cached and reused for every message of the type
+     */
+    default <T> TypedCodec<T> forType(Class<T> type) {
+        return new TypedCodec<T>() {
+            @Override
+            public byte[] encode(T data) throws IOException {
+                return MessageCodec.this.encode(data, type);
+            }
+
+            @Override
+            public T decode(byte[] data) throws IOException {
+                return type.cast(MessageCodec.this.decode(data, type));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,101 @@
+package me.drepic.proton.common.codec;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Fast path for messages which are a single primitive wrapper, String or UUID. Numbers are written fixed-width big-endian,
+ * Strings as plain UTF-8 and UUIDs as their 16 bytes, so nothing goes through JSON.
+ */
+public class PrimitiveCodec implements MessageCodec {
+
+    public static final byte ID = 3;
+    public static final String NAME = "primitive";
+
+    private static final Map<Class<?>, TypedCodec<?>> CODECS = ImmutableMap.<Class<?>, TypedCodec<?>>builder()
+            .put(Byte.class, fixed(1, (Byte value) -> ByteBuffer.allocate(1).put(value), ByteBuffer::get))
+            .put(Short.class, fixed(2, (Short value) -> ByteBuffer.allocate(2).putShort(value), ByteBuffer::getShort))
+            .put(Integer.class, fixed(4, (Integer value) -> ByteBuffer.allocate(4).putInt(value), ByteBuffer::getInt))
+            .put(Long.class, fixed(8, (Long value) -> ByteBuffer.allocate(8).putLong(value), ByteBuffer::getLong))
+            .put(Float.class, fixed(4, (Float value) -> ByteBuffer.allocate(4).putFloat(value), ByteBuffer::getFloat))
+            .put(Double.class, fixed(8, (Double value) -> ByteBuffer.allocate(8).putDouble(value), ByteBuffer::getDouble))
+            .put(Boolean.class, fixed(1, (Boolean value) -> ByteBuffer.allocate(1).put((byte) (value ? 1 : 0)), buffer -> buffer.get() != 0))
+            .put(Character.class, fixed(2, (Character value) -> ByteBuffer.allocate(2).putChar(value), ByteBuffer::getChar))
+            .put(UUID.class, fixed(16, (UUID value) -> ByteBuffer.allocate(16)
+                    .putLong(value.getMostSignificantBits())
+                    .putLong(value.getLeastSignificantBits()), buffer -> new UUID(buffer.getLong(), buffer.getLong())))
+            .put(String.class, new TypedCodec<String>() {
+                @Override
+                public byte[] encode(String data) {
+                    return data.getBytes(StandardCharsets.UTF_8);
+                }
+
+                @Override
+                public String decode(byte[] data) {
+                    return new String(data, StandardCharsets.UTF_8);
+                }
+            })
+            .build();
+
+    /**
+     * @return boolean Whether messages of the type can be sent with this codec
+     */
+    public static boolean supports(Class<?> type) {
+        return CODECS.containsKey(type);
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object data, Class<?> type) throws IOException {
+        return ((TypedCodec<Object>) forType(type)).encode(data);
+    }
+
+    @Override
+    public Object decode(byte[] data, Class<?> type) throws IOException {
+        return forType(type).decode(data);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypedCodec<T> forType(Class<T> type) {
+        TypedCodec<T> codec = (TypedCodec<T>) CODECS.get(type);
+        if (codec == null) {
+            throw new IllegalArgumentException("The primitive codec does not support " + type.getName());
+        }
+        return codec;
+    }
+
+    private static <T> TypedCodec<T> fixed(int length, Function<T, ByteBuffer> writer, Function<ByteBuffer, T> reader) {
+        return new TypedCodec<T>() {
+            @Override
+            public byte[] encode(T data) {
+                return writer.apply(data).array();
+            }
+
+            @Override
+            public T decode(byte[] data) throws IOException {
+                if (data.length != length) {
+                    throw new IOException(String.format("Expected %d bytes but received %d", length, data.length));
+                }
+                return reader.apply(ByteBuffer.wrap(data));
+            }
+        };
+    }
+
+}
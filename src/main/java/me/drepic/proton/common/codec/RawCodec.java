@@ -0,0 +1,58 @@
+package me.drepic.proton.common.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Marks payloads which were sent with {@link me.drepic.proton.common.ProtonManager#sendRaw} and are already encoded by the sender.
+ * Only byte[] and ByteBuffer are supported, the bytes are passed through unchanged.
+ */
+public class RawCodec implements MessageCodec {
+
+    public static final byte ID = 2;
+    public static final String NAME = "raw";
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object data, Class<?> type) throws IOException {
+        if (data instanceof byte[]) {
+            return (byte[]) data;
+        } else if (data instanceof ByteBuffer) {
+            return toArray((ByteBuffer) data);
+        }
+        throw new IOException("The raw codec can only send byte[] or ByteBuffer, not " + type.getName());
+    }
+
+    @Override
+    public Object decode(byte[] data, Class<?> type) throws IOException {
+        if (type.equals(byte[].class)) {
+            return data;
+        } else if (type.equals(ByteBuffer.class)) {
+            return ByteBuffer.wrap(data).asReadOnlyBuffer();
+        }
+        throw new IOException("Raw payloads can only be received as byte[] or ByteBuffer, not " + type.getName());
+    }
+
+    /**
+     * @return byte[] The remaining bytes of the buffer. A heap buffer covering its whole array is returned without copying
+     */
+    public static byte[] toArray(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes); //Leave the caller's position untouched
+        return bytes;
+    }
+
+}
@@ -0,0 +1,23 @@
+package me.drepic.proton.common.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link MessageCodec} bound to a single type, with everything that can be resolved ahead of time already resolved.
+ * <br>Proton creates one for each {@link me.drepic.proton.common.message.MessageContext} and reuses it for every message.
+ */
+public interface TypedCodec<T> {
+
+    byte[] encode(T data) throws IOException;
+
+    T decode(byte[] data) throws IOException;
+
+    /**
+     * Encode straight into a stream, used for chunked transfers. Codecs which can write incrementally should override this
+     */
+    default void encode(T data, OutputStream out) throws IOException {
+        out.write(encode(data));
+    }
+
+}
@@ -0,0 +1,116 @@
+package me.drepic.proton.common.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * zlib (Deflate) compression for message payloads, with an optional pre-shared dictionary.
+ * <br>A dictionary of typical message content greatly improves compression of small payloads.
+ * Its checksum is part of the zlib header, so a client with a different dictionary fails loudly instead of
+ * producing garbage.
+ *
+ * @author Drepic
+ */
+public class PayloadCompressor {
+
+    public static final int DEFAULT_MAX_INFLATED_BYTES = 64 * 1024 * 1024;
+
+    private final int level;
+    private final byte[] dictionary;
+    private final long dictionaryID;
+    private final int maxInflatedBytes;
+
+    //Deflater and Inflater hold native memory, reuse one per thread
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters;
+
+    /**
+     * @param level      The Deflate level, 1 (fastest) to 9 (smallest)
+     * @param dictionary The pre-shared dictionary, or null. It must be identical on every client
+     */
+    public PayloadCompressor(int level, byte[] dictionary) {
+        this(level, dictionary, DEFAULT_MAX_INFLATED_BYTES);
+    }
+
+    /**
+     * @param level            The Deflate level, 1 (fastest) to 9 (smallest)
+     * @param dictionary       The pre-shared dictionary, or null. It must be identical on every client
+     * @param maxInflatedBytes The largest payload {@link PayloadCompressor#decompress} produces, larger ones fail
+     */
+    public PayloadCompressor(int level, byte[] dictionary, int maxInflatedBytes) {
+        if (maxInflatedBytes <= 0) {
+            throw new IllegalArgumentException("The maximum inflated size must be positive");
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9");
+        }
+        this.level = level;
+        this.maxInflatedBytes = maxInflatedBytes;
+        this.dictionary = dictionary != null && dictionary.length > 0 ? dictionary.clone() : null;
+        if (this.dictionary != null) {
+            Adler32 adler = new Adler32();
+            adler.update(this.dictionary);
+            this.dictionaryID = adler.getValue();
+        } else {
+            this.dictionaryID = -1;
+        }
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level));
+        this.inflaters = ThreadLocal.withInitial(Inflater::new);
+    }
+
+    public byte[] compress(byte[] data) {
+        Deflater deflater = this.deflaters.get();
+        deflater.reset();
+        if (this.dictionary != null) {
+            deflater.setDictionary(this.dictionary);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        byte[] buffer = new byte[Math.min(8192, Math.max(64, data.length))];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IOException When the data is corrupt, needs another dictionary or inflates past the maximum size
+     */
+    public byte[] decompress(byte[] data) throws IOException {
+        Inflater inflater = this.inflaters.get();
+        inflater.reset();
+        inflater.setInput(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(this.maxInflatedBytes, data.length * 3L));
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (this.dictionary == null || inflater.getAdler() != this.dictionaryID) {
+                            throw new IOException("Message was compressed with a different dictionary");
+                        }
+                        inflater.setDictionary(this.dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Compressed message is truncated");
+                    }
+                }
+                if (out.size() > this.maxInflatedBytes - count) { //A few bytes can inflate to gigabytes
+                    throw new IOException(String.format("Compressed message inflates to more than %d bytes", this.maxInflatedBytes));
+                }
+                out.write(buffer, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed message is corrupt", e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,12 @@
+package me.drepic.proton.common.exception;
+
+public class MessageDecodeException extends RuntimeException {
+
+    public MessageDecodeException(String message) {
+        super(message);
+    }
+
+    public MessageDecodeException(Exception e){
+        super(e);
+    }
+}
@@ -0,0 +1,26 @@
+package me.drepic.proton.common.message;
+
+/**
+ * Which messages a conflating {@link MessageHandler} treats as newer values of the same state. While a message waits
+ * for the handler, a newer one with the same key replaces it, so the handler only sees the latest value.
+ * <br>Meant for state which is sent often, like player counts or positions, where stale values are useless.
+ */
+public enum Conflation {
+    /**
+     * Every message is handled
+     */
+    NONE,
+    /**
+     * Only the newest waiting message of the {@link MessageContext} is handled
+     */
+    CONTEXT,
+    /**
+     * Only the newest waiting message from each client is handled
+     */
+    SENDER,
+    /**
+     * Only the newest waiting message with each {@link KeyedMessage#getOrderingKey()} is handled.
+     * Data which is not a KeyedMessage is conflated by sender. The key is read from the {@link KeyedMessage#KEY_HEADER} header
+     */
+    KEY
+}
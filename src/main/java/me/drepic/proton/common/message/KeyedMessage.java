@@ -0,0 +1,21 @@
+package me.drepic.proton.common.message;
+
+/**
+ * Implemented by message data which should be handled in order, or conflated, per key, for example per player
+ *
+ * @see OrderBy#KEY
+ * @see Conflation#KEY
+ */
+public interface KeyedMessage {
+
+    /**
+     * The header the key is sent in, so recipients can order messages without decoding them
+     */
+    String KEY_HEADER = "proton-key";
+
+    /**
+     * @return Object The key, sent as its toString, so keys with the same string share an order
+     */
+    Object getOrderingKey();
+
+}
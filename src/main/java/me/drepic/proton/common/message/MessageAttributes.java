@@ -1,5 +1,8 @@
 package me.drepic.proton.common.message;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 public class MessageAttributes {
@@ -8,12 +11,27 @@ public class MessageAttributes {
     final String subject;
     final String senderName;
     final UUID senderID;
+    final Priority priority;
+    final List<String> senderGroups;
+    final Map<String, String> headers;
 
     public MessageAttributes(String namespace, String subject, String senderName, UUID senderID) {
+        this(namespace, subject, senderName, senderID, Priority.NORMAL);
+    }
+
+    public MessageAttributes(String namespace, String subject, String senderName, UUID senderID, Priority priority) {
+        this(namespace, subject, senderName, senderID, priority, Collections.emptyList(), Collections.emptyMap());
+    }
+
+    public MessageAttributes(String namespace, String subject, String senderName, UUID senderID, Priority priority,
+                             List<String> senderGroups, Map<String, String> headers) {
         this.namespace = namespace;
         this.subject = subject;
         this.senderName = senderName;
         this.senderID = senderID;
+        this.priority = priority;
+        this.senderGroups = Collections.unmodifiableList(senderGroups);
+        this.headers = Collections.unmodifiableMap(headers);
     }
 
     public String getNamespace() {
@@ -31,4 +49,33 @@ public class MessageAttributes {
     public UUID getSenderID() {
         return senderID;
     }
+
+    /**
+     * @return Priority The priority the message was sent with, NORMAL when the sender set none
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return List The groups of the sender, empty when the sender is an older client or did not send them
+     */
+    public List<String> getSenderGroups() {
+        return senderGroups;
+    }
+
+    /**
+     * @return Map The headers the message was sent with
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @param name The name of the header
+     * @return String The value of the header, or null when the message was sent without it
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
 }
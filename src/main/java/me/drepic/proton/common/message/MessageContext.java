@@ -1,7 +1,5 @@
 package me.drepic.proton.common.message;
 
-import java.util.Objects;
-
 public class MessageContext {
 
     final String namespace;
@@ -33,7 +31,7 @@ public class MessageContext {
 
     @Override
     public int hashCode() {
-        return Objects.hash(namespace, subject);
+        return 31 * namespace.hashCode() + subject.hashCode(); //Looked up on every send, so without the varargs array
     }
 
     public String toContextString() {
@@ -0,0 +1,18 @@
+package me.drepic.proton.common.message;
+
+/**
+ * Decides whether a {@link MessageHandler} receives a message, from its attributes alone.
+ * Filters run on the broker thread before the body is decoded or the handler scheduled, so they must be fast and must not block.
+ * <br>Implementations need a public constructor without parameters.
+ *
+ * @see MessageHandler#filters()
+ */
+@FunctionalInterface
+public interface MessageFilter {
+
+    /**
+     * @param attributes The attributes of the message, including the sender's groups and the headers it was sent with
+     * @return boolean Whether the handler receives the message
+     */
+    boolean accept(MessageAttributes attributes);
+}
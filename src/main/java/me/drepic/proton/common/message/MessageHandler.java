@@ -5,6 +5,24 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Marks a method which receives messages for the given namespace and subject.
+ * <br>Supported signatures:
+ * <ul>
+ *     <li>{@code (T data)} or {@code (T data, MessageAttributes attributes)} - the decoded body, T defines the data type of the context</li>
+ *     <li>{@code (byte[] data)} or {@code (ByteBuffer data)}, optionally followed by {@link MessageAttributes} - the payload
+ *     exactly as the sender encoded it, never decoded. The array may be modified, it is only copied when other handlers
+ *     receive the same message</li>
+ *     <li>{@code (InputStream data)}, optionally followed by {@link MessageAttributes} - the payload as a stream. For chunked
+ *     transfers the handler starts with the first chunk and reads the rest as it arrives. Must be async</li>
+ *     <li>{@code (MessageAttributes attributes)} - only the attributes, the body is never decoded</li>
+ * </ul>
+ * The body is decoded once, when the first handler that needs it runs.
+ * <br>Messages rejected by the sender filters ({@link #senders()}, {@link #ignoreSenders()}, {@link #senderGroups()} and
+ * {@link #filters()}) are discarded before anything is decoded or scheduled.
+ * <br>Classes compiled with Proton's annotation processor (found automatically on the classpath, or added with -processor)
+ * are registered without reflection, and handlers with the wrong parameters fail to compile.
+ */
 @Retention(RetentionPolicy.RUNTIME)
 @Target({ElementType.METHOD})
 public @interface MessageHandler {
@@ -13,4 +31,40 @@ public @interface MessageHandler {
     String subject();
     boolean async() default false;
 
+    /**
+     * Only for async handlers, synchronous handlers always run one at a time in arrival order within their priority
+     */
+    OrderBy orderBy() default OrderBy.NONE;
+
+    /**
+     * The lane this handler waits in, unless the message was sent with a priority
+     */
+    Priority priority() default Priority.NORMAL;
+
+    /**
+     * Replace waiting messages with newer ones, so the handler only sees the latest value
+     */
+    Conflation conflate() default Conflation.NONE;
+
+    /**
+     * Only receive messages from senders whose name matches one of these patterns, {@code *} matches any characters.
+     * Empty for every sender
+     */
+    String[] senders() default {};
+
+    /**
+     * Ignore messages from senders whose name matches one of these patterns, {@code *} matches any characters
+     */
+    String[] ignoreSenders() default {};
+
+    /**
+     * Only receive messages from senders in at least one of these groups. Empty for every sender
+     */
+    String[] senderGroups() default {};
+
+    /**
+     * Only receive messages every one of these filters accepts, see {@link MessageFilter}
+     */
+    Class<? extends MessageFilter>[] filters() default {};
+
 }
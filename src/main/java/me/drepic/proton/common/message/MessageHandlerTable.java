@@ -0,0 +1,143 @@
+package me.drepic.proton.common.message;
+
+import java.util.List;
+
+/**
+ * The {@link MessageHandler} methods of one class, generated at compile time by the Proton annotation processor
+ * as {@code <ClassName>$ProtonHandlers}. Registration uses the table instead of scanning the class with reflection.
+ */
+public interface MessageHandlerTable {
+
+    String SUFFIX = "$ProtonHandlers";
+
+    List<Entry> entries();
+
+    /**
+     * Calls the handler method directly
+     */
+    @FunctionalInterface
+    interface Invoker {
+        /**
+         * @param target     The object the handlers were registered with
+         * @param argument   The value of the first parameter, null when the method only takes {@link MessageAttributes}
+         * @param attributes The attributes of the message
+         */
+        void invoke(Object target, Object argument, MessageAttributes attributes) throws Exception;
+    }
+
+    final class Entry {
+        private final String namespace;
+        private final String subject;
+        private final boolean async;
+        private final OrderBy orderBy;
+        private final Priority priority;
+        private final String methodName;
+        private final Class<?>[] parameterTypes;
+        private final Invoker invoker;
+        private String[] senders = new String[0];
+        private String[] ignoreSenders = new String[0];
+        private String[] senderGroups = new String[0];
+        private Class<? extends MessageFilter>[] filters = emptyFilters();
+        private Conflation conflation = Conflation.NONE;
+
+        public Entry(String namespace, String subject, boolean async, String methodName, Class<?>[] parameterTypes, Invoker invoker) {
+            this(namespace, subject, async, OrderBy.NONE, methodName, parameterTypes, invoker);
+        }
+
+        public Entry(String namespace, String subject, boolean async, OrderBy orderBy, String methodName, Class<?>[] parameterTypes, Invoker invoker) {
+            this(namespace, subject, async, orderBy, Priority.NORMAL, methodName, parameterTypes, invoker);
+        }
+
+        public Entry(String namespace, String subject, boolean async, OrderBy orderBy, Priority priority, String methodName,
+                     Class<?>[] parameterTypes, Invoker invoker) {
+            this.namespace = namespace;
+            this.subject = subject;
+            this.async = async;
+            this.orderBy = orderBy;
+            this.priority = priority;
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+            this.invoker = invoker;
+        }
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        public boolean isAsync() {
+            return async;
+        }
+
+        public OrderBy getOrderBy() {
+            return orderBy;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public Class<?>[] getParameterTypes() {
+            return parameterTypes.clone();
+        }
+
+        public Invoker getInvoker() {
+            return invoker;
+        }
+
+        /**
+         * Set the sender filters of the handler, see {@link MessageHandler#senders()}
+         *
+         * @return Entry This entry
+         */
+        public Entry withFilters(String[] senders, String[] ignoreSenders, String[] senderGroups, Class<? extends MessageFilter>[] filters) {
+            this.senders = senders;
+            this.ignoreSenders = ignoreSenders;
+            this.senderGroups = senderGroups;
+            this.filters = filters;
+            return this;
+        }
+
+        public String[] getSenders() {
+            return senders.clone();
+        }
+
+        public String[] getIgnoreSenders() {
+            return ignoreSenders.clone();
+        }
+
+        public String[] getSenderGroups() {
+            return senderGroups.clone();
+        }
+
+        public Class<? extends MessageFilter>[] getFilters() {
+            return filters.clone();
+        }
+
+        /**
+         * Set how the handler conflates messages, see {@link MessageHandler#conflate()}
+         *
+         * @return Entry This entry
+         */
+        public Entry withConflation(Conflation conflation) {
+            this.conflation = conflation;
+            return this;
+        }
+
+        public Conflation getConflation() {
+            return conflation;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<? extends MessageFilter>[] emptyFilters() {
+            return (Class<? extends MessageFilter>[]) new Class<?>[0];
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package me.drepic.proton.common.message;
+
+/**
+ * How an async {@link MessageHandler} orders its messages. Messages with the same key are handled one at a time,
+ * in the order they arrived, messages with different keys still run in parallel.
+ */
+public enum OrderBy {
+    /**
+     * No ordering, every message runs as soon as a thread is free
+     */
+    NONE,
+    /**
+     * Messages from the same client are handled in order
+     */
+    SENDER,
+    /**
+     * Messages with the same {@link KeyedMessage#getOrderingKey()} are handled in order.
+     * Data which is not a KeyedMessage is ordered by sender. The sender puts the key in the {@link KeyedMessage#KEY_HEADER}
+     * header, so the body is not decoded to choose the order
+     */
+    KEY
+}
@@ -0,0 +1,26 @@
+package me.drepic.proton.common.message;
+
+/**
+ * What happens to a received message when the inbound buffer is full.
+ * Only messages whose handlers have not started yet are ever dropped.
+ */
+public enum OverflowPolicy {
+    /**
+     * Stop reading from the broker until there is room again, so the broker holds the messages instead.
+     * The message is dropped when there is still no room after the block timeout
+     */
+    BLOCK,
+    /**
+     * Drop the oldest waiting messages of the same {@link MessageContext} to make room
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the received message
+     */
+    DROP_NEWEST,
+    /**
+     * Drop waiting messages of any context with a lower priority, lowest and oldest first.
+     * The received message is dropped when nothing with a lower priority is waiting
+     */
+    SHED_PRIORITY
+}
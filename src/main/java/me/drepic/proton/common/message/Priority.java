@@ -0,0 +1,12 @@
+package me.drepic.proton.common.message;
+
+/**
+ * The lane a message is handled in. Synchronous handlers waiting for the main thread are run from every lane,
+ * weighted towards higher priorities, so a backlog of bulk messages doesn't delay critical ones.
+ * <br>A handler runs in the lane of the priority the message was sent with, or of its own when the sender set none.
+ */
+public enum Priority {
+    LOW,
+    NORMAL,
+    HIGH
+}
@@ -0,0 +1,149 @@
+package me.drepic.proton.common.redis;
+
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RedisBatchPublisher {
+
+    //Publishes are written to a connection without auto flush and sent to redis together as one pipelined batch.
+    //A batch is flushed when:
+    //  it reached the batch size
+    //  nothing is in flight, waiting would only add latency when the load is low
+    //  the replies of the batch in flight arrived, whatever gathered meanwhile goes next
+    //  the linger time ran out while the batch in flight is still waiting for its replies
+
+    private final StatefulRedisConnection<byte[], byte[]> connection;
+    private final RedisAsyncCommands<byte[], byte[]> commands;
+    private final ScheduledExecutorService timer;
+    private final Object lock;
+
+    private int queued; //Written but not flushed, guarded by lock
+    private int inFlight; //Flushed but not replied to, guarded by lock
+    private ScheduledFuture<?> linger; //Guarded by lock
+
+    private volatile int maxBatchSize;
+    private volatile long lingerNanos; //0 to only flush on size and replies
+
+    private final AtomicLong batches;
+    private final AtomicLong published;
+    private final AtomicLong lingerFlushes;
+
+    public RedisBatchPublisher(StatefulRedisConnection<byte[], byte[]> connection, int maxBatchSize, long lingerMicros) {
+        this.connection = connection;
+        this.connection.setAutoFlushCommands(false);
+        this.commands = connection.async();
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Proton Redis Publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lock = new Object();
+        this.batches = new AtomicLong();
+        this.published = new AtomicLong();
+        this.lingerFlushes = new AtomicLong();
+        setLimits(maxBatchSize, lingerMicros);
+    }
+
+    /**
+     * Add a publish to the current batch
+     *
+     * @return RedisFuture The reply, the number of clients which received the message
+     */
+    public RedisFuture<Long> publish(byte[] channel, byte[] message) {
+        RedisFuture<Long> reply;
+        synchronized (this.lock) {
+            reply = this.commands.publish(channel, message);
+            this.queued++;
+            if (this.queued >= this.maxBatchSize || this.inFlight == 0) {
+                flush();
+            } else if (this.linger == null && this.lingerNanos > 0) {
+                this.linger = this.timer.schedule(this::lingerExpired, this.lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        reply.whenComplete((receivers, throwable) -> replied());
+        return reply;
+    }
+
+    private void replied() {
+        synchronized (this.lock) {
+            this.inFlight--;
+            if (this.inFlight == 0 && this.queued > 0) {
+                flush();
+            }
+        }
+    }
+
+    private void lingerExpired() {
+        synchronized (this.lock) {
+            this.linger = null;
+            if (this.queued > 0) {
+                this.lingerFlushes.incrementAndGet();
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Send the current batch, called with the lock held
+     */
+    private void flush() {
+        if (this.linger != null) {
+            this.linger.cancel(false);
+            this.linger = null;
+        }
+        this.connection.flushCommands();
+        this.inFlight += this.queued;
+        this.batches.incrementAndGet();
+        this.published.addAndGet(this.queued);
+        this.queued = 0;
+    }
+
+    /**
+     * @param maxBatchSize The most publishes sent together
+     * @param lingerMicros How long a publish waits for more to join its batch while an earlier batch is in flight, 0 to wait for its replies
+     */
+    public void setLimits(int maxBatchSize, long lingerMicros) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, lingerMicros));
+    }
+
+    public long getBatches() {
+        return this.batches.get();
+    }
+
+    public long getPublished() {
+        return this.published.get();
+    }
+
+    /**
+     * @return long The batches sent because the linger time ran out, a high share means the linger time adds latency
+     */
+    public long getLingerFlushes() {
+        return this.lingerFlushes.get();
+    }
+
+    public double getAverageBatchSize() {
+        long batches = this.batches.get();
+        return batches == 0 ? 0 : (double) this.published.get() / batches;
+    }
+
+    /**
+     * Send what is left and close the connection
+     */
+    public void close() {
+        synchronized (this.lock) {
+            if (this.queued > 0) {
+                flush();
+            }
+        }
+        this.timer.shutdownNow();
+        this.connection.close();
+    }
+}
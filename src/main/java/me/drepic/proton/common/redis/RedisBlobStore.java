@@ -0,0 +1,50 @@
+package me.drepic.proton.common.redis;
+
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import me.drepic.proton.common.blob.BlobStore;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+public class RedisBlobStore implements BlobStore {
+
+    //Each payload is stored under proton:blob:<random uuid> and expires on its own
+
+    private static final String PREFIX = "proton:blob:";
+
+    private final RedisCommands<byte[], byte[]> commands;
+    private final RedisAsyncCommands<byte[], byte[]> asyncCommands;
+
+    public RedisBlobStore(StatefulRedisConnection<byte[], byte[]> connection) {
+        this.commands = connection.sync();
+        this.asyncCommands = connection.async();
+    }
+
+    @Override
+    public String put(byte[] data, long ttlMillis) {
+        String key = PREFIX + UUID.randomUUID();
+        this.commands.set(key.getBytes(StandardCharsets.UTF_8), data, new SetArgs().px(ttlMillis));
+        return key;
+    }
+
+    /**
+     * Blocks on redis, never call this from a redis thread
+     */
+    @Override
+    public byte[] get(String key) {
+        return this.commands.get(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Completes on a redis thread
+     */
+    @Override
+    public CompletableFuture<byte[]> getAsync(String key) {
+        return this.asyncCommands.get(key.getBytes(StandardCharsets.UTF_8)).toCompletableFuture();
+    }
+
+}
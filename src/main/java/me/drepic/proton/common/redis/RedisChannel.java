@@ -19,6 +19,30 @@ public class RedisChannel {
         return this.context.toContextString() + "." + this.recipient;
     }
 
+    //Compact form using RedisIdRegistry ids: #<context id>.<recipient id>, the recipient is empty for broadcasts
+
+    public static String toCompactString(int contextID, int recipientID) {
+        String recipientPart = recipientID < 0 ? "" : Integer.toString(recipientID, 36);
+        return "#" + Integer.toString(contextID, 36) + "." + recipientPart;
+    }
+
+    public static boolean isCompact(String s) {
+        return !s.isEmpty() && s.charAt(0) == '#';
+    }
+
+    /**
+     * @return int[] The context id and the recipient id, which is -1 for broadcasts
+     */
+    public static int[] parseCompact(String s) {
+        int separator = s.indexOf('.');
+        if (!isCompact(s) || separator < 0) {
+            throw new IllegalArgumentException();
+        }
+        int contextID = Integer.parseInt(s.substring(1, separator), 36);
+        int recipientID = separator == s.length() - 1 ? -1 : Integer.parseInt(s.substring(separator + 1), 36);
+        return new int[]{contextID, recipientID};
+    }
+
     public static RedisChannel fromString(String s) {
         String[] l = s.split("\\.");
         if (l.length < 2 || l.length > 3) {
@@ -1,6 +1,7 @@
 package me.drepic.proton.common.redis;
 
 import java.util.Arrays;
+import java.util.Map;
 import java.util.UUID;
 
 public class RedisDataWrapper {
@@ -8,12 +9,24 @@ public class RedisDataWrapper {
     //class to store metadata
     final public String senderName;
     final public UUID senderID;
+    final public byte codec; //Missing from older clients, which always sent JSON (codec 0)
+    final public byte flags;
     final public byte[] data;
+    final public String[] senderGroups; //Missing from older clients
+    final public Map<String, String> headers; //Missing from older clients
 
-    public RedisDataWrapper(String senderName, UUID senderID, byte[] data) {
+    public RedisDataWrapper(String senderName, UUID senderID, byte codec, byte flags, byte[] data) {
+        this(senderName, senderID, codec, flags, data, null, null);
+    }
+
+    public RedisDataWrapper(String senderName, UUID senderID, byte codec, byte flags, byte[] data, String[] senderGroups, Map<String, String> headers) {
         this.senderName = senderName;
         this.senderID = senderID;
+        this.codec = codec;
+        this.flags = flags;
         this.data = data;
+        this.senderGroups = senderGroups;
+        this.headers = headers;
     }
 
     @Override
@@ -21,6 +34,10 @@ public class RedisDataWrapper {
         return "RedisDataWrapper{" +
                 "senderName='" + senderName + '\'' +
                 ", senderID=" + senderID +
+                ", codec=" + codec +
+                ", flags=" + flags +
+                ", senderGroups=" + Arrays.toString(senderGroups) +
+                ", headers=" + headers +
                 ", data=" + Arrays.toString(data) +
                 '}';
     }
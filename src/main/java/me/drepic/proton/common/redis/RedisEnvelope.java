@@ -0,0 +1,198 @@
+package me.drepic.proton.common.redis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class RedisEnvelope {
+
+    //Binary replacement for the JSON encoded RedisDataWrapper
+    //Version 2: [magic][version][codec][flags][senderID: 16 bytes][senderName length: 2 bytes][senderName][data...]
+    //Version 3: [magic][version][codec][flags][senderID: 16 bytes][senderName id: 4 bytes][data...]
+    //Version 4 and 5: version 2 and 3 followed by [metadata] before the data
+    //  [group count: 1 byte][groups...][header count: 1 byte][header name, header value...], every string as [length: 2 bytes][UTF-8]
+    //Version 1 had no flags byte
+
+    public static final byte MAGIC = (byte) 0xA5; //Legacy JSON wrappers always start with `{`
+    public static final byte VERSION = 2;
+    public static final byte COMPACT_VERSION = 3; //Sender name replaced by its RedisIdRegistry id
+    public static final byte METADATA_VERSION = 4; //With the sender groups and headers
+    public static final byte COMPACT_METADATA_VERSION = 5;
+    private static final int FIXED_HEADER_LENGTH = 4 + 16;
+
+    final public String senderName; //Null when only the id was sent
+    final public int senderNameID; //-1 when the name was sent
+    final public UUID senderID;
+    final public byte codec;
+    final public byte flags;
+    final public byte[] data;
+    final public List<String> senderGroups; //Null when sent without metadata
+    final public Map<String, String> headers; //Null when sent without metadata
+
+    public RedisEnvelope(String senderName, UUID senderID, byte codec, byte flags, byte[] data) {
+        this(senderName, -1, senderID, codec, flags, data, null, null);
+    }
+
+    public RedisEnvelope(int senderNameID, UUID senderID, byte codec, byte flags, byte[] data) {
+        this(null, senderNameID, senderID, codec, flags, data, null, null);
+    }
+
+    public RedisEnvelope(String senderName, UUID senderID, byte codec, byte flags, byte[] data, List<String> senderGroups, Map<String, String> headers) {
+        this(senderName, -1, senderID, codec, flags, data, senderGroups, headers);
+    }
+
+    public RedisEnvelope(int senderNameID, UUID senderID, byte codec, byte flags, byte[] data, List<String> senderGroups, Map<String, String> headers) {
+        this(null, senderNameID, senderID, codec, flags, data, senderGroups, headers);
+    }
+
+    private RedisEnvelope(String senderName, int senderNameID, UUID senderID, byte codec, byte flags, byte[] data,
+                          List<String> senderGroups, Map<String, String> headers) {
+        this.senderName = senderName;
+        this.senderNameID = senderNameID;
+        this.senderID = senderID;
+        this.codec = codec;
+        this.flags = flags;
+        this.data = data;
+        this.senderGroups = senderGroups;
+        this.headers = headers;
+    }
+
+    public byte[] toBytes() {
+        return toBytes(senderSection(), codec, flags, data);
+    }
+
+    /**
+     * The part of the envelope which only depends on the sender and headers, so it can be reused for every message
+     * with {@link RedisEnvelope#toBytes(byte[], byte, byte, byte[])}. The codec, flags and data of this envelope are ignored.
+     *
+     * @return byte[] [version][senderID][senderName or its id][metadata]
+     */
+    public byte[] senderSection() {
+        byte[] name = senderName == null ? null : senderName.getBytes(StandardCharsets.UTF_8);
+        if (name != null && name.length > 0xFFFF) {
+            throw new IllegalArgumentException("The sender name must be shorter than 65536 bytes");
+        }
+        int senderLength = name == null ? 4 : 2 + name.length;
+        byte[] metadata = senderGroups == null ? null : metadataBytes();
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 16 + senderLength + (metadata == null ? 0 : metadata.length));
+        byte version = name == null ? COMPACT_VERSION : VERSION;
+        if (metadata != null) {
+            version = name == null ? COMPACT_METADATA_VERSION : METADATA_VERSION;
+        }
+        buffer.put(version)
+                .putLong(senderID.getMostSignificantBits())
+                .putLong(senderID.getLeastSignificantBits());
+        if (name == null) {
+            buffer.putInt(senderNameID);
+        } else {
+            buffer.putShort((short) name.length).put(name);
+        }
+        if (metadata != null) {
+            buffer.put(metadata);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encode an envelope around data with a section from {@link RedisEnvelope#senderSection()}, only allocating the result
+     */
+    public static byte[] toBytes(byte[] senderSection, byte codec, byte flags, byte[] data) {
+        byte[] bytes = new byte[3 + senderSection.length + data.length];
+        bytes[0] = MAGIC;
+        bytes[1] = senderSection[0]; //Version
+        bytes[2] = codec;
+        bytes[3] = flags;
+        System.arraycopy(senderSection, 1, bytes, 4, senderSection.length - 1);
+        System.arraycopy(data, 0, bytes, 3 + senderSection.length, data.length);
+        return bytes;
+    }
+
+    private byte[] metadataBytes() {
+        if (senderGroups.size() > 255 || headers.size() > 255) {
+            throw new IllegalArgumentException("At most 255 groups and 255 headers can be sent");
+        }
+        List<byte[]> groupBytes = new ArrayList<>(senderGroups.size());
+        List<byte[]> headerBytes = new ArrayList<>(headers.size() * 2);
+        int length = 2 + encode(senderGroups, groupBytes);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            length += encode(List.of(header.getKey(), header.getValue()), headerBytes);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put((byte) senderGroups.size());
+        groupBytes.forEach(string -> buffer.putShort((short) string.length).put(string));
+        buffer.put((byte) headers.size());
+        headerBytes.forEach(string -> buffer.putShort((short) string.length).put(string));
+        return buffer.array();
+    }
+
+    private static int encode(List<String> strings, List<byte[]> encoded) {
+        int length = 0;
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("Groups and headers must be shorter than 65536 bytes");
+            }
+            encoded.add(bytes);
+            length += 2 + bytes.length;
+        }
+        return length;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        String string = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+
+    public static boolean isEnvelope(byte[] message) {
+        return message.length >= FIXED_HEADER_LENGTH + 1 && message[0] == MAGIC;
+    }
+
+    public static RedisEnvelope fromBytes(byte[] message) {
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        if (buffer.get() != MAGIC) {
+            throw new IllegalArgumentException("Not a Proton envelope");
+        }
+        byte version = buffer.get();
+        if (version < 1 || version > COMPACT_METADATA_VERSION) {
+            throw new IllegalArgumentException("Unsupported envelope version " + version);
+        }
+        byte codec = buffer.get();
+        byte flags = version >= 2 ? buffer.get() : 0;
+        UUID senderID = new UUID(buffer.getLong(), buffer.getLong());
+
+        String senderName = null;
+        int senderNameID = -1;
+        if (version == COMPACT_VERSION || version == COMPACT_METADATA_VERSION) {
+            senderNameID = buffer.getInt();
+        } else {
+            senderName = readString(buffer);
+        }
+
+        List<String> senderGroups = null;
+        Map<String, String> headers = null;
+        if (version >= METADATA_VERSION) {
+            int groupCount = Byte.toUnsignedInt(buffer.get());
+            senderGroups = groupCount == 0 ? Collections.emptyList() : new ArrayList<>(groupCount);
+            for (int i = 0; i < groupCount; i++) {
+                senderGroups.add(readString(buffer));
+            }
+            int headerCount = Byte.toUnsignedInt(buffer.get());
+            headers = headerCount == 0 ? Collections.emptyMap() : new HashMap<>();
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(readString(buffer), readString(buffer));
+            }
+        }
+
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return new RedisEnvelope(senderName, senderNameID, senderID, codec, flags, data, senderGroups, headers);
+    }
+}
@@ -0,0 +1,102 @@
+package me.drepic.proton.common.redis;
+
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class RedisIdRegistry {
+
+    //Cluster wide mapping of MessageContexts and client/group names to small integer ids, stored in redis:
+    //  proton:ids:<kind>          value -> id
+    //  proton:ids:<kind>:reverse  id -> value
+    //  proton:ids:<kind>:next     counter
+
+    public static final String CONTEXTS = "context";
+    public static final String NAMES = "name";
+
+    private static final String PREFIX = "proton:ids:";
+
+    private final StatefulRedisConnection<String, String> connection;
+    private final RedisCommands<String, String> commands;
+    private final Map<String, Map<String, Integer>> ids;
+    private final Map<String, Map<Integer, String>> values;
+
+    public RedisIdRegistry(StatefulRedisConnection<String, String> connection) {
+        this.connection = connection;
+        this.commands = connection.sync();
+        this.ids = new ConcurrentHashMap<>();
+        this.values = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Load every id already assigned, so lookups for them never reach redis
+     */
+    public void preload(String kind) {
+        //From the forward hash, the reverse one may briefly hold candidates which lost the race for a value
+        Map<String, String> assigned = this.commands.hgetall(PREFIX + kind);
+        assigned.forEach((value, id) -> cache(kind, value, Integer.parseInt(id)));
+    }
+
+    /**
+     * Get the id for a value, assigning the next free one if it has none.
+     * Blocks on redis the first time a value is seen, never call this from a redis thread.
+     */
+    public int idFor(String kind, String value) {
+        Integer id = this.ids.computeIfAbsent(kind, k -> new ConcurrentHashMap<>()).get(value);
+        if (id != null) {
+            return id;
+        }
+
+        String key = PREFIX + kind;
+        String existing = this.commands.hget(key, value);
+        if (existing == null) {
+            //The reverse entry is written before the id is claimed, so whoever sees the id can resolve it
+            String candidate = Long.toString(this.commands.incr(key + ":next"));
+            this.commands.hset(key + ":reverse", candidate, value);
+            if (Boolean.TRUE.equals(this.commands.hsetnx(key, value, candidate))) {
+                existing = candidate;
+            } else { //Someone else assigned it first, the candidate stays unused
+                this.commands.hdel(key + ":reverse", candidate);
+                existing = this.commands.hget(key, value);
+            }
+        }
+
+        int assigned = Integer.parseInt(existing);
+        cache(kind, value, assigned);
+        return assigned;
+    }
+
+    /**
+     * @return String The value with the given id if it is already known locally, otherwise null
+     */
+    public String cachedValue(String kind, int id) {
+        Map<Integer, String> kindValues = this.values.get(kind);
+        return kindValues == null ? null : kindValues.get(id);
+    }
+
+    /**
+     * Resolve an id without blocking, safe to call from a redis thread
+     */
+    public CompletableFuture<String> valueFor(String kind, int id) {
+        String cached = cachedValue(kind, id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return this.connection.async().hget(PREFIX + kind + ":reverse", Integer.toString(id))
+                .toCompletableFuture()
+                .thenApply(value -> {
+                    if (value != null) { //Only id -> value, the id may be a candidate which lost its race
+                        this.values.computeIfAbsent(kind, k -> new ConcurrentHashMap<>()).put(id, value);
+                    }
+                    return value;
+                });
+    }
+
+    private void cache(String kind, String value, int id) {
+        this.ids.computeIfAbsent(kind, k -> new ConcurrentHashMap<>()).put(value, id);
+        this.values.computeIfAbsent(kind, k -> new ConcurrentHashMap<>()).put(id, value);
+    }
+}
@@ -0,0 +1,328 @@
+package me.drepic.proton.processor;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates a {@code me.drepic.proton.common.message.MessageHandlerTable} named {@code <ClassName>$ProtonHandlers}
+ * for every class with {@code @MessageHandler} methods, so registration does not need reflection.
+ * <br>Handlers with the wrong parameters, and contexts handled with different data types, are compile errors.
+ * Classes the table can't call into (private, anonymous or local classes, private methods) are left to reflection.
+ */
+@SupportedAnnotationTypes(MessageHandlerProcessor.MESSAGE_HANDLER)
+public class MessageHandlerProcessor extends AbstractProcessor {
+
+    static final String MESSAGE_HANDLER = "me.drepic.proton.common.message.MessageHandler";
+    private static final String MESSAGE_ATTRIBUTES = "me.drepic.proton.common.message.MessageAttributes";
+    private static final String TABLE = "me.drepic.proton.common.message.MessageHandlerTable";
+    private static final String ORDER_BY = "me.drepic.proton.common.message.OrderBy";
+    private static final String PRIORITY = "me.drepic.proton.common.message.Priority";
+    private static final String CONFLATION = "me.drepic.proton.common.message.Conflation";
+    private static final String SUFFIX = "$ProtonHandlers";
+    private static final Set<String> RAW_TYPES = Set.of("byte[]", "java.nio.ByteBuffer", "java.io.InputStream");
+
+    private final Map<String, TypeMirror> contextTypes = new HashMap<>(); //Across rounds, like contextClassMap at runtime
+
+    private Elements elements;
+    private Types types;
+    private Messager messager;
+    private Filer filer;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.elements = processingEnv.getElementUtils();
+        this.types = processingEnv.getTypeUtils();
+        this.messager = processingEnv.getMessager();
+        this.filer = processingEnv.getFiler();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = this.elements.getTypeElement(MESSAGE_HANDLER);
+        if (annotation == null) {
+            return false;
+        }
+
+        Map<TypeElement, List<ExecutableElement>> handlersByClass = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) element;
+            if (check(method)) {
+                handlersByClass.computeIfAbsent((TypeElement) method.getEnclosingElement(), k -> new ArrayList<>()).add(method);
+            }
+        }
+
+        handlersByClass.forEach((type, methods) -> {
+            if (canGenerate(type, methods)) {
+                generate(type, methods);
+            }
+        });
+        return false;
+    }
+
+    /**
+     * Report the same mistakes registerMessageHandlers would throw RegisterMessageHandlerException for
+     *
+     * @return boolean Whether the handler is valid
+     */
+    private boolean check(ExecutableElement method) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        if (parameters.isEmpty() || parameters.size() > 2
+                || (parameters.size() == 2 && !isType(parameters.get(1).asType(), MESSAGE_ATTRIBUTES))) {
+            error(method, "Annotated MessageHandler has incorrect number of parameters");
+            return false;
+        }
+
+        AnnotationMirror handler = handlerAnnotation(method);
+        String namespace = (String) value(handler, "namespace");
+        String subject = (String) value(handler, "subject");
+        boolean async = Boolean.TRUE.equals(value(handler, "async"));
+
+        for (TypeMirror filter : classValues(handler, "filters")) {
+            if (!isInstantiable(filter)) {
+                error(method, String.format("MessageFilter %s needs a public constructor without parameters", filter));
+                return false;
+            }
+        }
+
+        TypeMirror parameter = this.types.erasure(parameters.get(0).asType());
+        if (isType(parameter, "java.io.InputStream") && !async) {
+            error(method, "InputStream MessageHandlers must be async");
+            return false;
+        }
+
+        if (isRaw(parameter, parameters.size())) {
+            return true; //Raw handlers accept any data type
+        }
+
+        TypeMirror dataType = parameter.getKind().isPrimitive()
+                ? this.types.boxedClass((PrimitiveType) parameter).asType()
+                : parameter;
+        String context = namespace + ":" + subject;
+        TypeMirror defined = this.contextTypes.putIfAbsent(context, dataType);
+        if (defined != null && !this.types.isSameType(defined, dataType)) {
+            error(method, String.format("MessageContext already has defined data type %s", defined));
+            return false;
+        }
+        return true;
+    }
+
+    private boolean canGenerate(TypeElement type, List<ExecutableElement> methods) {
+        for (Element enclosing = type; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            TypeElement enclosingType = (TypeElement) enclosing;
+            if (enclosingType.getModifiers().contains(Modifier.PRIVATE)
+                    || (enclosingType.getNestingKind() != NestingKind.TOP_LEVEL && enclosingType.getNestingKind() != NestingKind.MEMBER)) {
+                return false;
+            }
+        }
+        String packageName = this.elements.getPackageOf(type).getQualifiedName().toString();
+        for (ExecutableElement method : methods) {
+            if (method.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            for (TypeMirror filter : classValues(handlerAnnotation(method), "filters")) { //The table refers to them directly
+                if (!isAccessible((TypeElement) this.types.asElement(filter), packageName)) {
+                    return false;
+                }
+            }
+            for (TypeMirror thrown : method.getThrownTypes()) {
+                if (!this.types.isAssignable(thrown, this.elements.getTypeElement("java.lang.Exception").asType())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type, List<ExecutableElement> methods) {
+        String packageName = this.elements.getPackageOf(type).getQualifiedName().toString();
+        String binaryName = this.elements.getBinaryName(type).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+        String target = this.types.erasure(type.asType()).toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        source.append("public final class ").append(simpleName).append(" implements ").append(TABLE).append(" {\n\n");
+        source.append("    private static final java.util.List<Entry> ENTRIES = java.util.List.of(\n");
+        for (int i = 0; i < methods.size(); i++) {
+            ExecutableElement method = methods.get(i);
+            AnnotationMirror handler = handlerAnnotation(method);
+            List<? extends VariableElement> parameters = method.getParameters();
+
+            StringBuilder parameterTypes = new StringBuilder();
+            for (VariableElement parameter : parameters) {
+                if (parameterTypes.length() > 0) {
+                    parameterTypes.append(", ");
+                }
+                parameterTypes.append(this.types.erasure(parameter.asType())).append(".class");
+            }
+
+            String receiver = method.getModifiers().contains(Modifier.STATIC) ? target : "((" + target + ") target)";
+            String call;
+            if (parameters.size() == 1 && isType(parameters.get(0).asType(), MESSAGE_ATTRIBUTES)) {
+                call = receiver + "." + method.getSimpleName() + "(attributes)";
+            } else {
+                String argument = "(" + this.types.erasure(parameters.get(0).asType()) + ") argument";
+                call = receiver + "." + method.getSimpleName() + "(" + argument + (parameters.size() == 2 ? ", attributes" : "") + ")";
+            }
+
+            source.append("            new Entry(")
+                    .append(literal((String) value(handler, "namespace"))).append(", ")
+                    .append(literal((String) value(handler, "subject"))).append(", ")
+                    .append(Boolean.TRUE.equals(value(handler, "async"))).append(", ")
+                    .append(ORDER_BY).append(".").append(value(handler, "orderBy")).append(", ")
+                    .append(PRIORITY).append(".").append(value(handler, "priority")).append(", ")
+                    .append(literal(method.getSimpleName().toString())).append(", ")
+                    .append("new Class<?>[]{").append(parameterTypes).append("}, ")
+                    .append("(target, argument, attributes) -> ").append(call).append(")");
+
+            List<String> senders = stringValues(handler, "senders");
+            List<String> ignoreSenders = stringValues(handler, "ignoreSenders");
+            List<String> senderGroups = stringValues(handler, "senderGroups");
+            List<TypeMirror> filters = classValues(handler, "filters");
+            if (!senders.isEmpty() || !ignoreSenders.isEmpty() || !senderGroups.isEmpty() || !filters.isEmpty()) {
+                StringBuilder filterClasses = new StringBuilder();
+                for (TypeMirror filter : filters) {
+                    if (filterClasses.length() > 0) {
+                        filterClasses.append(", ");
+                    }
+                    filterClasses.append(this.types.erasure(filter)).append(".class");
+                }
+                source.append(".withFilters(")
+                        .append(stringArray(senders)).append(", ")
+                        .append(stringArray(ignoreSenders)).append(", ")
+                        .append(stringArray(senderGroups)).append(", ")
+                        .append("new Class[]{").append(filterClasses).append("})");
+            }
+            String conflation = value(handler, "conflate").toString();
+            if (!conflation.equals("NONE")) {
+                source.append(".withConflation(").append(CONFLATION).append(".").append(conflation).append(")");
+            }
+            source.append(i < methods.size() - 1 ? ",\n" : "\n");
+        }
+        source.append("    );\n\n");
+        source.append("    @Override\n");
+        source.append("    public java.util.List<Entry> entries() {\n");
+        source.append("        return ENTRIES;\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        try {
+            JavaFileObject file = this.filer.createSourceFile((packageName.isEmpty() ? "" : packageName + ".") + simpleName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source.toString());
+            }
+        } catch (IOException e) {
+            this.messager.printMessage(Diagnostic.Kind.WARNING, "Could not generate MessageHandler table: " + e.getMessage(), type);
+        }
+    }
+
+    private boolean isRaw(TypeMirror parameter, int parameterCount) {
+        return RAW_TYPES.contains(parameter.toString()) || (parameterCount == 1 && isType(parameter, MESSAGE_ATTRIBUTES));
+    }
+
+    private boolean isType(TypeMirror type, String name) {
+        return type.getKind() == TypeKind.DECLARED && this.types.erasure(type).toString().equals(name);
+    }
+
+    private AnnotationMirror handlerAnnotation(ExecutableElement method) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(MESSAGE_HANDLER)) {
+                return mirror;
+            }
+        }
+        throw new IllegalStateException("Method is not a MessageHandler");
+    }
+
+    private Object value(AnnotationMirror mirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : this.elements.getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    private List<String> stringValues(AnnotationMirror mirror, String name) {
+        List<String> strings = new ArrayList<>();
+        for (Object value : (List<?>) value(mirror, name)) {
+            strings.add((String) ((AnnotationValue) value).getValue());
+        }
+        return strings;
+    }
+
+    private List<TypeMirror> classValues(AnnotationMirror mirror, String name) {
+        List<TypeMirror> classes = new ArrayList<>();
+        for (Object value : (List<?>) value(mirror, name)) {
+            classes.add((TypeMirror) ((AnnotationValue) value).getValue());
+        }
+        return classes;
+    }
+
+    private String stringArray(List<String> strings) {
+        StringBuilder array = new StringBuilder("new String[]{");
+        for (int i = 0; i < strings.size(); i++) {
+            array.append(i > 0 ? ", " : "").append(literal(strings.get(i)));
+        }
+        return array.append("}").toString();
+    }
+
+    /**
+     * @return boolean Whether the registration can create the filter, like HandlerFilter does
+     */
+    private boolean isInstantiable(TypeMirror filter) {
+        TypeElement element = (TypeElement) this.types.asElement(filter);
+        if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)
+                || (element.getNestingKind() == NestingKind.MEMBER && !element.getModifiers().contains(Modifier.STATIC))) {
+            return false;
+        }
+        for (Element enclosed : element.getEnclosedElements()) {
+            if (enclosed.getKind() == ElementKind.CONSTRUCTOR && ((ExecutableElement) enclosed).getParameters().isEmpty()) {
+                return enclosed.getModifiers().contains(Modifier.PUBLIC);
+            }
+        }
+        return false;
+    }
+
+    private boolean isAccessible(TypeElement element, String packageName) {
+        for (Element enclosing = element; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            Set<Modifier> modifiers = enclosing.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)
+                    || (!modifiers.contains(Modifier.PUBLIC) && !this.elements.getPackageOf(element).getQualifiedName().contentEquals(packageName))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String literal(String value) {
+        return this.elements.getConstantExpression(value);
+    }
+
+    private void error(Element element, String message) {
+        this.messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,76 @@
+package me.drepic.proton.common;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+class ChunkTests {
+
+    private static List<byte[]> split(byte[] data, int chunkSize) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        try (ChunkOutputStream out = new ChunkOutputStream(chunks::add, 42, chunkSize)) {
+            out.write(data);
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testChunks__framing() throws IOException {
+        byte[] data = new byte[250];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        List<byte[]> chunks = split(data, 100);
+        Assertions.assertEquals(3, chunks.size());
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            ByteBuffer header = ByteBuffer.wrap(chunks.get(i));
+            Assertions.assertEquals(42, header.getLong());
+            Assertions.assertEquals(i, header.getInt());
+            Assertions.assertEquals(i == chunks.size() - 1, header.get() != 0);
+            payload.write(chunks.get(i), ChunkOutputStream.HEADER_LENGTH, chunks.get(i).length - ChunkOutputStream.HEADER_LENGTH);
+        }
+        Assertions.assertArrayEquals(data, payload.toByteArray());
+    }
+
+    @Test
+    public void testChunks__empty() throws IOException {
+        List<byte[]> chunks = split(new byte[0], 100);
+        Assertions.assertEquals(1, chunks.size());
+        Assertions.assertEquals(ChunkOutputStream.HEADER_LENGTH, chunks.get(0).length);
+        Assertions.assertEquals(1, chunks.get(0)[ChunkOutputStream.HEADER_LENGTH - 1]); //Last
+    }
+
+    @Test
+    public void testChunks__stream() throws IOException {
+        ChunkInputStream in = new ChunkInputStream(1000);
+        for (byte[] chunk : split("streamed".getBytes(StandardCharsets.UTF_8), 3)) {
+            Assertions.assertTrue(in.offer(chunk, ChunkOutputStream.HEADER_LENGTH));
+        }
+        in.finish();
+        Assertions.assertArrayEquals("streamed".getBytes(StandardCharsets.UTF_8), in.readAllBytes());
+        Assertions.assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testChunks__slowReader() throws IOException {
+        ChunkInputStream in = new ChunkInputStream(1000);
+        byte[] chunk = split(new byte[10], 10).get(0);
+        int accepted = 0;
+        while (in.offer(chunk, ChunkOutputStream.HEADER_LENGTH)) { //Never blocks, fails once the reader is too far behind
+            accepted++;
+        }
+        Assertions.assertTrue(accepted > 0);
+        in.finish(); //Room is kept for the end
+
+        in.fail(new IOException("Chunked transfer failed"));
+        Assertions.assertThrows(IOException.class, in::read);
+    }
+}
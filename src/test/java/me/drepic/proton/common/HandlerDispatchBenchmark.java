@@ -0,0 +1,86 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.message.MessageAttributes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Compares calling a MessageHandler through {@link Method#invoke}, as registration used to, with the generated invokers.
+ * Run with the main method from the test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HandlerDispatchBenchmark {
+
+    public static class Handler {
+        private Blackhole blackhole;
+
+        public void recv(String data) {
+            blackhole.consume(data);
+        }
+
+        public void recv(String data, MessageAttributes attributes) {
+            blackhole.consume(data);
+            blackhole.consume(attributes);
+        }
+    }
+
+    private Handler handler;
+    private String data;
+    private MessageAttributes attributes;
+
+    private Method oneArgMethod;
+    private Method twoArgMethod;
+    private Consumer<Object> oneArgInvoker;
+    private BiConsumer<Object, Object> twoArgInvoker;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws NoSuchMethodException {
+        this.handler = new Handler();
+        this.handler.blackhole = blackhole;
+        this.data = "data";
+        this.attributes = new MessageAttributes("namespace", "subject", "client", UUID.randomUUID());
+
+        this.oneArgMethod = Handler.class.getMethod("recv", String.class);
+        this.twoArgMethod = Handler.class.getMethod("recv", String.class, MessageAttributes.class);
+        this.oneArgInvoker = HandlerInvokers.oneArg(this.handler, this.oneArgMethod);
+        this.twoArgInvoker = HandlerInvokers.twoArg(this.handler, this.twoArgMethod);
+    }
+
+    @Benchmark
+    public void reflectiveOneArg() throws Exception {
+        this.oneArgMethod.invoke(this.handler, this.data);
+    }
+
+    @Benchmark
+    public void invokerOneArg() {
+        this.oneArgInvoker.accept(this.data);
+    }
+
+    @Benchmark
+    public void reflectiveTwoArg() throws Exception {
+        this.twoArgMethod.invoke(this.handler, this.data, this.attributes);
+    }
+
+    @Benchmark
+    public void invokerTwoArg() {
+        this.twoArgInvoker.accept(this.data, this.attributes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HandlerDispatchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
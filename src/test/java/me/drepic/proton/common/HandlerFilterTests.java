@@ -0,0 +1,80 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.exception.RegisterMessageHandlerException;
+import me.drepic.proton.common.message.MessageAttributes;
+import me.drepic.proton.common.message.MessageFilter;
+import me.drepic.proton.common.message.Priority;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+class HandlerFilterTests {
+
+    private static final String[] NONE = new String[0];
+
+    public static class VipFilter implements MessageFilter {
+        @Override
+        public boolean accept(MessageAttributes attributes) {
+            return "true".equals(attributes.getHeader("vip"));
+        }
+    }
+
+    public static class BrokenFilter implements MessageFilter {
+        private BrokenFilter() {
+        }
+
+        @Override
+        public boolean accept(MessageAttributes attributes) {
+            return true;
+        }
+    }
+
+    private static MessageAttributes attributes(String sender, List<String> groups, Map<String, String> headers) {
+        return new MessageAttributes("namespace", "subject", sender, UUID.randomUUID(), Priority.NORMAL, groups, headers);
+    }
+
+    private static MessageAttributes attributes(String sender) {
+        return attributes(sender, Collections.emptyList(), Collections.emptyMap());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HandlerFilter filter(String[] senders, String[] ignoreSenders, String[] senderGroups, Class<?>... filters) {
+        return HandlerFilter.of(senders, ignoreSenders, senderGroups, (Class<? extends MessageFilter>[]) filters);
+    }
+
+    @Test
+    public void testFilter__none() {
+        Assertions.assertNull(filter(NONE, NONE, NONE));
+    }
+
+    @Test
+    public void testFilter__senders() {
+        HandlerFilter filter = filter(new String[]{"lobby-*", "proxy"}, new String[]{"lobby-2"}, NONE);
+        Assertions.assertTrue(filter.test(attributes("lobby-1")));
+        Assertions.assertTrue(filter.test(attributes("proxy")));
+        Assertions.assertFalse(filter.test(attributes("lobby-2")));
+        Assertions.assertFalse(filter.test(attributes("proxy-1")));
+        Assertions.assertFalse(filter.test(attributes("survival")));
+    }
+
+    @Test
+    public void testFilter__senderGroups() {
+        HandlerFilter filter = filter(NONE, NONE, new String[]{"lobbies", "proxies"});
+        Assertions.assertTrue(filter.test(attributes("lobby-1", Arrays.asList("servers", "lobbies"), Collections.emptyMap())));
+        Assertions.assertFalse(filter.test(attributes("survival", Collections.singletonList("servers"), Collections.emptyMap())));
+        Assertions.assertFalse(filter.test(attributes("survival")));
+    }
+
+    @Test
+    public void testFilter__headers() {
+        HandlerFilter filter = filter(NONE, NONE, NONE, VipFilter.class);
+        Assertions.assertTrue(filter.test(attributes("client1", Collections.emptyList(), Collections.singletonMap("vip", "true"))));
+        Assertions.assertFalse(filter.test(attributes("client1")));
+        Assertions.assertThrows(RegisterMessageHandlerException.class, () -> filter(NONE, NONE, NONE, BrokenFilter.class));
+    }
+}
@@ -0,0 +1,89 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.exception.MessageDecodeException;
+import me.drepic.proton.common.message.MessageContext;
+import me.drepic.proton.common.message.OverflowPolicy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+
+class InboundBufferTests {
+
+    private static final MessageContext CONTEXT = new MessageContext("namespace", "subject");
+
+    private static LazyPayload admit(InboundBuffer buffer, byte[] data, int priority) {
+        InboundBuffer.Ticket ticket = buffer.admit(CONTEXT, data.length, 1, priority);
+        Assertions.assertNotNull(ticket);
+        LazyPayload payload = new LazyPayload(null, null, null, MessageFlags.NONE, data);
+        payload.setTicket(ticket);
+        return payload;
+    }
+
+    @Test
+    public void testBuffer__dropOldestReleasesPayload() throws InterruptedException {
+        InboundBuffer buffer = new InboundBuffer();
+        buffer.setLimits(1, -1, 0);
+        buffer.setDefaultPolicy(OverflowPolicy.DROP_OLDEST);
+
+        byte[] data = new byte[1 << 20];
+        WeakReference<byte[]> reference = new WeakReference<>(data);
+        LazyPayload oldest = admit(buffer, data, 1); //Kept, like a handler still waiting in a queue
+        data = null;
+        LazyPayload newest = admit(buffer, new byte[16], 1);
+
+        Assertions.assertEquals(1, buffer.getDropped(CONTEXT));
+        Assertions.assertEquals(1, buffer.getMessages());
+        Assertions.assertEquals(16, buffer.getBytes());
+        Assertions.assertFalse(oldest.begin());
+        Assertions.assertThrows(MessageDecodeException.class, oldest::bytes);
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertNull(reference.get());
+
+        Assertions.assertTrue(newest.begin());
+        Assertions.assertEquals(16, newest.bytes().length);
+        newest.end();
+        Assertions.assertEquals(0, buffer.getMessages());
+    }
+
+    @Test
+    public void testBuffer__shedPriorityReleasesPayload() {
+        InboundBuffer buffer = new InboundBuffer();
+        buffer.setLimits(-1, 64, 0);
+        buffer.setDefaultPolicy(OverflowPolicy.SHED_PRIORITY);
+
+        LazyPayload low = admit(buffer, new byte[64], 0);
+        LazyPayload high = admit(buffer, new byte[64], 2);
+        Assertions.assertFalse(low.begin());
+        Assertions.assertThrows(MessageDecodeException.class, low::bytes);
+        Assertions.assertTrue(high.begin());
+        Assertions.assertEquals(64, buffer.getBytes());
+    }
+
+    @Test
+    public void testBuffer__droppedBeforePayloadSet() {
+        InboundBuffer buffer = new InboundBuffer();
+        buffer.setLimits(1, -1, 0);
+        buffer.setDefaultPolicy(OverflowPolicy.DROP_OLDEST);
+
+        InboundBuffer.Ticket ticket = buffer.admit(CONTEXT, 8, 1, 1);
+        Assertions.assertNotNull(buffer.admit(CONTEXT, 8, 1, 1)); //Drops the first before its payload exists
+        LazyPayload payload = new LazyPayload(null, null, null, MessageFlags.NONE, new byte[8]);
+        payload.setTicket(ticket);
+        Assertions.assertFalse(payload.begin());
+        Assertions.assertThrows(MessageDecodeException.class, payload::bytes);
+    }
+
+    @Test
+    public void testBuffer__untracked() {
+        InboundBuffer buffer = new InboundBuffer();
+        LazyPayload payload = admit(buffer, new byte[8], 1);
+        Assertions.assertTrue(payload.begin());
+        Assertions.assertEquals(8, payload.bytes().length);
+        payload.end();
+        Assertions.assertEquals(0, buffer.getMessages());
+    }
+}
@@ -0,0 +1,77 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.blob.BlobStore;
+import me.drepic.proton.common.exception.MessageDecodeException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+class LazyPayloadTests {
+
+    private static class AsyncBlobStore implements BlobStore {
+
+        final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+        final Map<String, CompletableFuture<byte[]>> fetches = new ConcurrentHashMap<>();
+        int blockingGets;
+
+        @Override
+        public String put(byte[] data, long ttlMillis) {
+            String key = "blob" + this.blobs.size();
+            this.blobs.put(key, data);
+            return key;
+        }
+
+        @Override
+        public byte[] get(String key) {
+            this.blockingGets++;
+            return this.blobs.get(key);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> getAsync(String key) {
+            return this.fetches.computeIfAbsent(key, k -> new CompletableFuture<>());
+        }
+    }
+
+    private static LazyPayload claimCheck(BlobStore store, String key) {
+        return new LazyPayload(null, null, store, MessageFlags.CLAIM_CHECK, key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testClaimCheck__fetchAsync() {
+        AsyncBlobStore store = new AsyncBlobStore();
+        String key = store.put(new byte[]{1, 2, 3}, 1000);
+        LazyPayload payload = claimCheck(store, key);
+
+        CompletableFuture<Void> fetched = payload.fetchAsync();
+        Assertions.assertFalse(fetched.isDone());
+        store.fetches.get(key).complete(store.blobs.get(key));
+        Assertions.assertTrue(fetched.isDone());
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3}, payload.bytes());
+        Assertions.assertEquals(0, store.blockingGets); //Never fetched again by the handler
+    }
+
+    @Test
+    public void testClaimCheck__expired() {
+        AsyncBlobStore store = new AsyncBlobStore();
+        LazyPayload payload = claimCheck(store, "missing");
+        CompletableFuture<Void> fetched = payload.fetchAsync();
+        store.fetches.get("missing").complete(null);
+        Assertions.assertFalse(fetched.isCompletedExceptionally());
+        Assertions.assertThrows(MessageDecodeException.class, payload::bytes);
+        Assertions.assertEquals(0, store.blockingGets);
+    }
+
+    @Test
+    public void testClaimCheck__blockingFallback() {
+        AsyncBlobStore store = new AsyncBlobStore();
+        String key = store.put(new byte[]{4}, 1000);
+        LazyPayload payload = claimCheck(store, key);
+        Assertions.assertArrayEquals(new byte[]{4}, payload.bytes());
+        Assertions.assertEquals(1, store.blockingGets);
+    }
+}
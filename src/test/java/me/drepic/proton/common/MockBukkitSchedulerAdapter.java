@@ -2,6 +2,7 @@ package me.drepic.proton.common;
 
 import be.seeseemelk.mockbukkit.scheduler.BukkitSchedulerMock;
 import me.drepic.proton.common.adapters.SchedulerAdapter;
+import me.drepic.proton.common.adapters.TaskHandle;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public class MockBukkitSchedulerAdapter implements SchedulerAdapter {
@@ -23,4 +24,14 @@ public class MockBukkitSchedulerAdapter implements SchedulerAdapter {
     public void runTaskAsynchronously(Runnable runnable) {
         this.scheduler.runTaskAsynchronously(plugin, runnable);
     }
+
+    @Override
+    public TaskHandle runTaskTimer(Runnable runnable, long delayMillis, long periodMillis) {
+        return this.scheduler.runTaskTimer(plugin, runnable, Math.max(1, delayMillis / 50), Math.max(1, periodMillis / 50))::cancel;
+    }
+
+    @Override
+    public TaskHandle runTaskTimerAsynchronously(Runnable runnable, long delayMillis, long periodMillis) {
+        return this.scheduler.runTaskTimerAsynchronously(plugin, runnable, Math.max(1, delayMillis / 50), Math.max(1, periodMillis / 50))::cancel;
+    }
 }
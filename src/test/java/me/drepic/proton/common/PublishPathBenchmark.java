@@ -0,0 +1,94 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.codec.BinaryCodec;
+import me.drepic.proton.common.message.MessageContext;
+import me.drepic.proton.common.redis.RedisChannel;
+import me.drepic.proton.common.redis.RedisEnvelope;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building the per message parts of a publish, as sending used to, with the cached templates.
+ * Run with the main method from the test classpath, gc.alloc.rate.norm shows the bytes allocated per publish.
+ * Apart from the envelope around the payload, the cached variants should not allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublishPathBenchmark {
+
+    private static final String NAMESPACE = "namespace";
+    private static final String SUBJECT = "subject";
+    private static final String SENDER = "client1";
+    private static final String RECIPIENT = "client2";
+    private static final String[] GROUPS = {"group1"};
+
+    private UUID senderID;
+    private byte[] data;
+
+    private PublishTemplates<RabbitPublishTemplate> rabbitTemplates;
+    private PublishTemplates<RedisManager.ChannelNames> redisChannels;
+    private byte[] senderSection;
+
+    @Setup
+    public void setup() {
+        this.senderID = UUID.randomUUID();
+        this.data = new byte[64];
+        this.rabbitTemplates = new PublishTemplates<>((context, recipient) -> new RabbitPublishTemplate(SENDER, RabbitPublishTemplate.senderID(this.senderID, true), GROUPS, context, recipient));
+        this.redisChannels = new PublishTemplates<>(RedisManager.ChannelNames::new);
+        this.senderSection = new RedisEnvelope(SENDER, this.senderID, BinaryCodec.ID, MessageFlags.NONE, new byte[0]).senderSection();
+    }
+
+    @Benchmark
+    public Object rabbitPropertiesBuilt() {
+        MessageContext context = new MessageContext(NAMESPACE, SUBJECT);
+        return RabbitPublishTemplate.build(RabbitPublishTemplate.headers(SENDER, this.senderID.toString(), GROUPS, context, RECIPIENT),
+                BinaryCodec.ID, MessageFlags.NONE, Collections.emptyMap());
+    }
+
+    @Benchmark
+    public Object rabbitPropertiesCached() {
+        MessageContext context = new MessageContext(NAMESPACE, SUBJECT);
+        return this.rabbitTemplates.get(context, RECIPIENT).properties(BinaryCodec.ID, MessageFlags.NONE);
+    }
+
+    @Benchmark
+    public byte[] redisChannelBuilt() {
+        MessageContext context = new MessageContext(NAMESPACE, SUBJECT);
+        return new RedisChannel(context, RECIPIENT).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] redisChannelCached() {
+        MessageContext context = new MessageContext(NAMESPACE, SUBJECT);
+        return this.redisChannels.get(context, RECIPIENT).name;
+    }
+
+    @Benchmark
+    public byte[] redisEnvelopeBuilt() {
+        return new RedisEnvelope(SENDER, this.senderID, BinaryCodec.ID, MessageFlags.NONE, this.data).toBytes();
+    }
+
+    @Benchmark
+    public byte[] redisEnvelopeCached() {
+        return RedisEnvelope.toBytes(this.senderSection, BinaryCodec.ID, MessageFlags.NONE, this.data);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PublishPathBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -1,12 +1,30 @@
 package me.drepic.proton.common;
 
+import me.drepic.proton.common.codec.BinaryCodec;
+import me.drepic.proton.common.message.Conflation;
 import me.drepic.proton.common.message.MessageAttributes;
 import me.drepic.proton.common.message.MessageHandler;
+import me.drepic.proton.common.message.MessageHandlerTable;
+import me.drepic.proton.common.message.OrderBy;
+import me.drepic.proton.common.message.OverflowPolicy;
+import me.drepic.proton.common.message.Priority;
+import net.jodah.concurrentunit.Waiter;
 import org.bukkit.Bukkit;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class RabbitSendTests extends RabbitTests {
 
@@ -65,6 +83,266 @@ class RabbitSendTests extends RabbitTests {
         waiter.await(1000, 2);
     }
 
+    @Test
+    public void testSend__syncBudget() throws TimeoutException, InterruptedException {
+        String myString = "testSend__syncBudget";
+        System.out.println("Running: " + myString);
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT)
+            public void recv(String recvStr) throws InterruptedException {
+                waiter.assertEquals(recvStr, myString);
+                waiter.assertTrue(Bukkit.isPrimaryThread());
+                Thread.sleep(5); //Longer than the budget
+                waiter.resume();
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        client1ProtonManager.setSyncBudget(1, 1000);
+        for (int i = 0; i < 3; i++) {
+            client2ProtonManager.send(NAMESPACE, SUBJECT, myString, CLIENT_1_NAME);
+        }
+        Thread.sleep(500);
+        scheduler.performTicks(1); //One handler per tick
+        Assertions.assertEquals(2, client1ProtonManager.getSyncBacklog());
+        scheduler.performTicks(2);
+        waiter.await(1000, 3);
+    }
+
+    @Test
+    public void testSend__inboundOverflow() throws TimeoutException, InterruptedException {
+        System.out.println("Running: testSend__inboundOverflow");
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT)
+            public void recv(Integer recvInt) {
+                waiter.assertTrue(recvInt >= 3); //Only the newest two fit
+                waiter.resume();
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        client1ProtonManager.setInboundLimits(2, -1, 0);
+        client1ProtonManager.setOverflowPolicy(NAMESPACE, SUBJECT, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            client2ProtonManager.send(NAMESPACE, SUBJECT, i, CLIENT_1_NAME);
+        }
+        Thread.sleep(500); //Nothing is handled before the next tick
+        Assertions.assertEquals(2, client1ProtonManager.getInboundMessages());
+        Assertions.assertEquals(3, client1ProtonManager.getDroppedMessages(NAMESPACE, SUBJECT));
+        scheduler.performTicks(1);
+        waiter.await(1000, 2);
+        Assertions.assertEquals(0, client1ProtonManager.getInboundMessages());
+    }
+
+    @Test
+    public void testSend__priorityLanes() throws TimeoutException, InterruptedException {
+        System.out.println("Running: testSend__priorityLanes");
+        AtomicInteger handled = new AtomicInteger();
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, priority = Priority.LOW)
+            public void recvBulk(Integer recvInt) {
+                handled.incrementAndGet();
+                waiter.resume();
+            }
+
+            @MessageHandler(namespace = NAMESPACE, subject = "critical-subject", priority = Priority.HIGH)
+            public void recvCritical(String recvStr) {
+                waiter.assertEquals(0, handled.getAndIncrement()); //Ahead of the bulk messages which arrived first
+                waiter.resume();
+            }
+
+            @MessageHandler(namespace = NAMESPACE, subject = "escalated-subject", priority = Priority.LOW)
+            public void recvEscalated(String recvStr, MessageAttributes messageAttributes) {
+                waiter.assertEquals(Priority.HIGH, messageAttributes.getPriority());
+                waiter.assertTrue(handled.getAndIncrement() < 2); //Sent with a priority, so it uses that lane
+                waiter.resume();
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        for (int i = 0; i < 10; i++) {
+            client2ProtonManager.send(NAMESPACE, SUBJECT, i, CLIENT_1_NAME);
+        }
+        client2ProtonManager.send(NAMESPACE, "critical-subject", "kick", CLIENT_1_NAME);
+        client2ProtonManager.send(NAMESPACE, "escalated-subject", "transfer", CLIENT_1_NAME, Priority.HIGH);
+        Thread.sleep(500); //Everything waits for the next tick
+        scheduler.performTicks(3);
+        waiter.await(1000, 12);
+    }
+
+    @Test
+    public void testSend__conflation() throws TimeoutException, InterruptedException {
+        System.out.println("Running: testSend__conflation");
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, conflate = Conflation.CONTEXT)
+            public void recvLatest(Integer recvInt) {
+                waiter.assertEquals(4, recvInt); //Only the newest value is handled
+                waiter.resume();
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        for (int i = 0; i < 5; i++) {
+            client2ProtonManager.send(NAMESPACE, SUBJECT, i, CLIENT_1_NAME);
+        }
+        Thread.sleep(500); //Everything waits for the next tick
+        scheduler.performTicks(1);
+        waiter.await(1000, 1);
+        Assertions.assertEquals(4, client1ProtonManager.getConflatedMessages());
+    }
+
+    @Test
+    public void testSend__async() throws Exception {
+        System.out.println("Running: testSend__async");
+        int count = 1000;
+        AtomicInteger handled = new AtomicInteger();
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recvInt(Integer recvInt) {
+                if (handled.incrementAndGet() == count) {
+                    waiter.resume();
+                }
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        CompletableFuture<?>[] futures = new CompletableFuture[count];
+        for (int i = 0; i < count; i++) {
+            futures[i] = client2ProtonManager.sendAsync(NAMESPACE, SUBJECT, i, CLIENT_1_NAME);
+        }
+        CompletableFuture.allOf(futures).get(5, TimeUnit.SECONDS); //Every message was accepted by the broker
+        waiter.await(5000, 1);
+    }
+
+    @Test
+    public void testSend__concurrentPublishers() throws Exception {
+        System.out.println("Running: testSend__concurrentPublishers");
+        int threads = 8;
+        int perThread = 250;
+        AtomicInteger handled = new AtomicInteger();
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recvInt(Integer recvInt) {
+                if (handled.incrementAndGet() == threads * perThread) {
+                    waiter.resume();
+                }
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        ((RabbitMQManager) client2ProtonManager).setPublishChannels(4);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    client2ProtonManager.send(NAMESPACE, SUBJECT, i, CLIENT_1_NAME);
+                }
+            });
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        waiter.await(5000, 1);
+    }
+
+    @Test
+    public void testSend__multipleRecipients() throws TimeoutException, InterruptedException {
+        System.out.println("Running: testSend__multipleRecipients");
+        AtomicInteger client1Handled = new AtomicInteger();
+        AtomicInteger client2Handled = new AtomicInteger();
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recvStr(String recvStr) {
+                waiter.assertEquals("party", recvStr);
+                client1Handled.incrementAndGet();
+                waiter.resume();
+            }
+        };
+        Object client2Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recvStr(String recvStr) {
+                waiter.assertEquals("party", recvStr);
+                client2Handled.incrementAndGet();
+                waiter.resume();
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        client2ProtonManager.registerMessageHandlers(client2Handler);
+        client2ProtonManager.send(NAMESPACE, SUBJECT, "party", Arrays.asList(CLIENT_1_NAME, CLIENT_2_NAME, "client3", CLIENT_1_NAME));
+        waiter.await(1000, 2);
+        Thread.sleep(200); //Nothing arrives twice
+        Assertions.assertEquals(1, client1Handled.get());
+        Assertions.assertEquals(1, client2Handled.get());
+    }
+
+    @Test
+    public void testSend__multicastBindings() throws TimeoutException, InterruptedException {
+        System.out.println("Running: testSend__multicastBindings");
+        ((RabbitMQManager) client1ProtonManager).setMulticastBindings(true);
+        ((RabbitMQManager) client2ProtonManager).setMulticastBindings(true);
+        Object handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recvStr(String recvStr, MessageAttributes messageAttributes) {
+                waiter.assertEquals("party", recvStr);
+                waiter.assertEquals(Priority.HIGH, messageAttributes.getPriority());
+                waiter.assertEquals("true", messageAttributes.getHeader("vip"));
+                waiter.resume();
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(handler);
+        client2ProtonManager.registerMessageHandlers(handler);
+        client2ProtonManager.send(NAMESPACE, SUBJECT, "party", Arrays.asList(CLIENT_1_NAME, CLIENT_2_NAME),
+                Priority.HIGH, Collections.singletonMap("vip", "true"));
+        waiter.await(1000, 2);
+    }
+
+    @Test
+    public void testSend__binarySenderID() throws TimeoutException, InterruptedException {
+        System.out.println("Running: testSend__binarySenderID");
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv(String recvStr, MessageAttributes messageAttributes) {
+                waiter.assertEquals(messageAttributes.getSenderName(), CLIENT_2_NAME);
+                waiter.assertEquals(messageAttributes.getSenderID(), client2ProtonManager.getClientID());
+                waiter.resume();
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        client2ProtonManager.send(NAMESPACE, SUBJECT, "text", CLIENT_1_NAME);
+        ((RabbitMQManager) client2ProtonManager).setBinarySenderID(true);
+        client2ProtonManager.send(NAMESPACE, SUBJECT, "bytes", CLIENT_1_NAME);
+        waiter.await(1000, 2);
+    }
+
+    @Test
+    public void testSend__groupsAndHeaders() throws TimeoutException, InterruptedException {
+        System.out.println("Running: testSend__groupsAndHeaders");
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true, senderGroups = CLIENT_2_GROUP)
+            public void recv(String recvStr, MessageAttributes messageAttributes) {
+                waiter.assertTrue(messageAttributes.getSenderGroups().contains(CLIENT_2_GROUP));
+                waiter.assertEquals("true", messageAttributes.getHeader("vip"));
+                waiter.resume();
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        client2ProtonManager.send(NAMESPACE, SUBJECT, "vip", CLIENT_1_NAME, null, Collections.singletonMap("vip", "true"));
+        waiter.await(1000, 1);
+    }
+
+    @Test
+    public void testSend__orderedAsync() throws TimeoutException, InterruptedException {
+        System.out.println("Running: testSend__orderedAsync");
+        AtomicInteger expected = new AtomicInteger();
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true, orderBy = OrderBy.SENDER)
+            public void recv(Integer recvInt) throws InterruptedException {
+                Thread.sleep(recvInt % 3); //Later messages would overtake earlier ones without ordering
+                waiter.assertEquals(recvInt, expected.getAndIncrement());
+                waiter.assertFalse(Bukkit.isPrimaryThread());
+                waiter.resume();
+            }
+        };
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        for (int i = 0; i < 50; i++) {
+            client2ProtonManager.send(NAMESPACE, SUBJECT, i, CLIENT_1_NAME);
+        }
+        waiter.await(5000, 50);
+    }
+
     @Test
     public void testSend__mixedAsync() throws TimeoutException, InterruptedException {
         String myString = "testSend__mixedAsync";
@@ -141,6 +419,145 @@ class RabbitSendTests extends RabbitTests {
         waiter.await(1000, 1);
     }
 
+    @Test
+    public void testSend__codecAndFlags() throws TimeoutException, InterruptedException {
+        System.out.println("Running: testSend__codecAndFlags");
+        ComplicatedData data = new ComplicatedData(1, 5.4f, "This is complicated".repeat(100), Arrays.asList('a', 'b', 'c', 'd'));
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv(ComplicatedData recvData) {
+                waiter.assertEquals(recvData, data);
+                waiter.resume();
+            }
+        };
+
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        client2ProtonManager.setCodec(NAMESPACE, SUBJECT, client2ProtonManager.getCodec(BinaryCodec.NAME));
+        client2ProtonManager.setCompression(NAMESPACE, SUBJECT, true); //The codec id and flags travel with the message
+        client2ProtonManager.send(NAMESPACE, SUBJECT, data, CLIENT_1_NAME);
+        waiter.await(1000, 1);
+    }
+
+    @Test
+    public void testSend__rawHandlers() throws TimeoutException, InterruptedException {
+        String myString = "testSend__rawHandlers";
+        System.out.println("Running: " + myString);
+        String json = "\"" + myString + "\"";
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv1(String recvStr) {
+                waiter.assertEquals(recvStr, myString);
+                waiter.resume();
+            }
+
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv2(byte[] recvBytes) {
+                waiter.assertEquals(new String(recvBytes, StandardCharsets.UTF_8), json);
+                waiter.resume();
+            }
+
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv3(ByteBuffer recvBuffer, MessageAttributes messageAttributes) {
+                waiter.assertTrue(recvBuffer.isReadOnly());
+                waiter.assertEquals(StandardCharsets.UTF_8.decode(recvBuffer).toString(), json);
+                waiter.assertEquals(messageAttributes.getSenderName(), CLIENT_2_NAME);
+                waiter.resume();
+            }
+
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv4(MessageAttributes messageAttributes) {
+                waiter.assertEquals(messageAttributes.getSenderName(), CLIENT_2_NAME);
+                waiter.resume();
+            }
+        };
+
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        client2ProtonManager.send(NAMESPACE, SUBJECT, myString, CLIENT_1_NAME);
+        waiter.await(1000, 4);
+    }
+
+    @Test
+    public void testSend__chunked() throws TimeoutException, InterruptedException {
+        String myString = "testSend__chunked".repeat(100);
+        System.out.println("Running: testSend__chunked");
+        String json = "\"" + myString + "\"";
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv1(String recvStr) {
+                waiter.assertEquals(recvStr, myString);
+                waiter.resume();
+            }
+
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv2(InputStream recvStream, MessageAttributes messageAttributes) throws IOException {
+                waiter.assertEquals(new String(recvStream.readAllBytes(), StandardCharsets.UTF_8), json);
+                waiter.assertEquals(messageAttributes.getSenderName(), CLIENT_2_NAME);
+                waiter.resume();
+            }
+        };
+
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        client2ProtonManager.setChunking(100, 5000, 1024 * 1024); //Many small chunks
+        client2ProtonManager.sendChunked(NAMESPACE, SUBJECT, myString, CLIENT_1_NAME);
+        waiter.await(5000, 2);
+    }
+
+    @Test
+    public void testSend__raw() throws TimeoutException, InterruptedException {
+        String myString = "testSend__raw";
+        System.out.println("Running: " + myString);
+        byte[] myBytes = myString.getBytes(StandardCharsets.UTF_8);
+        Object client1Handler = new Object() {
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv1(byte[] recvBytes) {
+                waiter.assertTrue(Arrays.equals(recvBytes, myBytes));
+                waiter.resume();
+            }
+
+            @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+            public void recv2(ByteBuffer recvBuffer, MessageAttributes messageAttributes) {
+                waiter.assertTrue(recvBuffer.isReadOnly());
+                waiter.assertEquals(recvBuffer, ByteBuffer.wrap(myBytes));
+                waiter.assertEquals(messageAttributes.getSenderName(), CLIENT_2_NAME);
+                waiter.resume();
+            }
+        };
+
+        client1ProtonManager.registerMessageHandlers(client1Handler);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(myBytes.length);
+        buffer.put(myBytes).flip();
+        client2ProtonManager.sendRaw(NAMESPACE, SUBJECT, buffer, CLIENT_1_NAME);
+        waiter.await(1000, 2);
+    }
+
+    static class TableHandler {
+        private final Waiter waiter;
+        private final String expected;
+
+        TableHandler(Waiter waiter, String expected) {
+            this.waiter = waiter;
+            this.expected = expected;
+        }
+
+        @MessageHandler(namespace = NAMESPACE, subject = SUBJECT, async = true)
+        public void recv(String recvStr, MessageAttributes messageAttributes) {
+            waiter.assertEquals(recvStr, expected);
+            waiter.assertEquals(messageAttributes.getSenderName(), CLIENT_2_NAME);
+            waiter.resume();
+        }
+    }
+
+    @Test
+    public void testSend__generatedHandlerTable() throws TimeoutException, InterruptedException, ClassNotFoundException {
+        String myString = "testSend__generatedHandlerTable";
+        System.out.println("Running: " + myString);
+        Class.forName(TableHandler.class.getName() + MessageHandlerTable.SUFFIX); //Generated by the annotation processor
+
+        client1ProtonManager.registerMessageHandlers(new TableHandler(waiter, myString));
+        client2ProtonManager.send(NAMESPACE, SUBJECT, myString, CLIENT_1_NAME);
+        waiter.await(1000, 1);
+    }
+
     @Test
     public void testSendGroup__commonGroup() throws TimeoutException, InterruptedException {
         String myString = "testSendGroup__commonGroup";
@@ -0,0 +1,67 @@
+package me.drepic.proton.common;
+
+import me.drepic.proton.common.adapters.SchedulerAdapter;
+import me.drepic.proton.common.adapters.TaskHandle;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+class StripedExecutorTests {
+
+    private final Queue<Runnable> scheduled = new ArrayDeque<>(); //Run by hand, like a stalled executor
+    private final SchedulerAdapter scheduler = new SchedulerAdapter() {
+        @Override
+        public void runTask(Runnable runnable) {
+            runnable.run();
+        }
+
+        @Override
+        public void runTaskAsynchronously(Runnable runnable) {
+            scheduled.add(runnable);
+        }
+
+        @Override
+        public TaskHandle runTaskTimer(Runnable runnable, long delayMillis, long periodMillis) {
+            return () -> {};
+        }
+
+        @Override
+        public TaskHandle runTaskTimerAsynchronously(Runnable runnable, long delayMillis, long periodMillis) {
+            return () -> {};
+        }
+    };
+
+    @Test
+    public void testStripes__ordered() {
+        StripedExecutor executor = new StripedExecutor(this.scheduler, Logger.getLogger("test"), 4, 16);
+        List<Integer> ran = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int value = i;
+            executor.execute("key", () -> ran.add(value));
+        }
+        Assertions.assertEquals(1, this.scheduled.size()); //One task per stripe
+        this.scheduled.poll().run();
+        Assertions.assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), ran);
+    }
+
+    @Test
+    public void testStripes__bounded() {
+        StripedExecutor executor = new StripedExecutor(this.scheduler, Logger.getLogger("test"), 1, 3);
+        for (int i = 0; i < 3; i++) {
+            executor.execute("hot", () -> {});
+        }
+        Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute("hot", () -> {}));
+        Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute("other", () -> {})); //Same stripe
+        Assertions.assertEquals(2, executor.getRejected());
+
+        this.scheduled.poll().run();
+        executor.execute("hot", () -> {}); //Room again
+        Assertions.assertEquals(2, executor.getRejected());
+    }
+}
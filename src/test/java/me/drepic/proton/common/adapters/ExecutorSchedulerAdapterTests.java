@@ -0,0 +1,111 @@
+package me.drepic.proton.common.adapters;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
+
+class ExecutorSchedulerAdapterTests {
+
+    private final AtomicInteger platformTasks = new AtomicInteger();
+    private final SchedulerAdapter platform = new SchedulerAdapter() {
+        @Override
+        public void runTask(Runnable runnable) {
+            platformTasks.incrementAndGet();
+            runnable.run();
+        }
+
+        @Override
+        public void runTaskAsynchronously(Runnable runnable) {
+            Assertions.fail("Async tasks must run on the executor");
+        }
+
+        @Override
+        public TaskHandle runTaskTimer(Runnable runnable, long delayMillis, long periodMillis) {
+            return () -> {};
+        }
+
+        @Override
+        public TaskHandle runTaskTimerAsynchronously(Runnable runnable, long delayMillis, long periodMillis) {
+            return () -> {};
+        }
+    };
+
+    private ExecutorSchedulerAdapter scheduler;
+
+    @AfterEach
+    public void tearDown() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testExecutor__selection() throws InterruptedException {
+        this.scheduler = new ExecutorSchedulerAdapter(this.platform, false, 2, 4);
+        Assertions.assertFalse(this.scheduler.isVirtual());
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch ran = new CountDownLatch(1);
+        this.scheduler.runTaskAsynchronously(() -> {
+            thread.set(Thread.currentThread());
+            ran.countDown();
+        });
+        Assertions.assertTrue(ran.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(thread.get().getName().startsWith("Proton Handler #"));
+
+        this.scheduler.runTask(() -> {});
+        Assertions.assertEquals(1, this.platformTasks.get());
+        this.scheduler.shutdown();
+
+        this.scheduler = new ExecutorSchedulerAdapter(this.platform, true, 2, 4);
+        Assertions.assertEquals(Runtime.version().feature() >= 21, this.scheduler.isVirtual());
+    }
+
+    @Test
+    public void testExecutor__queuedAndInFlight() throws InterruptedException {
+        this.scheduler = new ExecutorSchedulerAdapter(this.platform, false, 2, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(4);
+        Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        };
+
+        this.scheduler.runTaskAsynchronously(blocking);
+        this.scheduler.runTaskAsynchronously(blocking);
+        awaitValue(2, this.scheduler::getInFlight);
+        this.scheduler.runTaskAsynchronously(blocking);
+        this.scheduler.runTaskAsynchronously(blocking);
+        Assertions.assertEquals(2, this.scheduler.getQueued());
+        Assertions.assertEquals(2, this.scheduler.getInFlight());
+
+        Assertions.assertThrows(RejectedExecutionException.class, () -> this.scheduler.runTaskAsynchronously(blocking));
+        Assertions.assertEquals(1, this.scheduler.getRejected());
+        Assertions.assertEquals(2, this.scheduler.getQueued());
+
+        release.countDown();
+        Assertions.assertTrue(finished.await(1, TimeUnit.SECONDS));
+        awaitValue(0, this.scheduler::getInFlight);
+        Assertions.assertEquals(0, this.scheduler.getQueued());
+        this.scheduler.runTaskAsynchronously(() -> {}); //Room again
+        Assertions.assertEquals(1, this.scheduler.getRejected());
+    }
+
+    private static void awaitValue(int expected, IntSupplier value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (value.getAsInt() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assertions.assertEquals(expected, value.getAsInt());
+    }
+}
@@ -0,0 +1,110 @@
+package me.drepic.proton.common.codec;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+class CodecTests {
+
+    static class ComplicatedData {
+
+        public int a;
+        public float b;
+        public String c;
+        public List<Character> d;
+        public Map<String, Integer> e;
+        public int[] f;
+        public UUID g;
+
+        public ComplicatedData() {
+        }
+
+        public ComplicatedData(int a, float b, String c, List<Character> d, Map<String, Integer> e, int[] f, UUID g) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+            this.e = e;
+            this.f = f;
+            this.g = g;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ComplicatedData that = (ComplicatedData) o;
+            return a == that.a && Float.compare(that.b, b) == 0 && Objects.equals(c, that.c) && Objects.equals(d, that.d)
+                    && Objects.equals(e, that.e) && Arrays.equals(f, that.f) && Objects.equals(g, that.g);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(a, b, c, d, e, Arrays.hashCode(f), g);
+        }
+    }
+
+    private static ComplicatedData complicatedData() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        map.put("one", 1);
+        map.put("two", 2);
+        return new ComplicatedData(1, 5.4f, "This is complicated", Arrays.asList('a', 'b', 'c', 'd'), map,
+                new int[]{3, 2, 1}, UUID.randomUUID());
+    }
+
+    @Test
+    public void testBinary__complicatedData() throws Exception {
+        TypedCodec<ComplicatedData> codec = new BinaryCodec(new Gson()).forType(ComplicatedData.class);
+        ComplicatedData data = complicatedData();
+        Assertions.assertEquals(data, codec.decode(codec.encode(data)));
+
+        ComplicatedData empty = new ComplicatedData(0, 0, null, null, null, null, null);
+        Assertions.assertEquals(empty, codec.decode(codec.encode(empty)));
+    }
+
+    @Test
+    public void testBinary__truncated() throws Exception {
+        TypedCodec<ComplicatedData> codec = new BinaryCodec(new Gson()).forType(ComplicatedData.class);
+        byte[] encoded = codec.encode(complicatedData());
+        Assertions.assertThrows(EOFException.class, () -> codec.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+
+    @Test
+    public void testBinary__forgedLength() {
+        BinaryAdapters adapters = new BinaryAdapters(new Gson());
+        byte[] forged = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F, 1, 2}; //A count of 2^28, then two bytes
+        Assertions.assertThrows(EOFException.class, () -> adapters.get(int[].class).read(new BinaryReader(forged)));
+        Assertions.assertThrows(EOFException.class, () -> adapters.get(ComplicatedData.class.getField("d").getGenericType())
+                .read(new BinaryReader(forged)));
+        Assertions.assertThrows(EOFException.class, () -> adapters.get(ComplicatedData.class.getField("e").getGenericType())
+                .read(new BinaryReader(forged)));
+    }
+
+    @Test
+    public void testPrimitive__fastPath() throws Exception {
+        PrimitiveCodec codec = new PrimitiveCodec();
+        UUID uuid = UUID.randomUUID();
+        byte[] encoded = codec.encode(uuid, UUID.class);
+        Assertions.assertEquals(16, encoded.length); //No JSON
+        Assertions.assertEquals(uuid, codec.decode(encoded, UUID.class));
+        Assertions.assertArrayEquals("text".getBytes(StandardCharsets.UTF_8), codec.encode("text", String.class));
+        Assertions.assertEquals(42, codec.decode(codec.encode(42, Integer.class), Integer.class));
+        Assertions.assertFalse(PrimitiveCodec.supports(ComplicatedData.class));
+    }
+
+    @Test
+    public void testGson__complicatedData() throws Exception {
+        GsonCodec codec = new GsonCodec(new Gson());
+        ComplicatedData data = complicatedData();
+        Assertions.assertEquals(data, codec.decode(codec.encode(data, ComplicatedData.class), ComplicatedData.class));
+    }
+}
@@ -0,0 +1,50 @@
+package me.drepic.proton.common.compression;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class PayloadCompressorTests {
+
+    private static final byte[] DATA = "\"testCompression\"".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testCompression__roundTrip() throws IOException {
+        PayloadCompressor compressor = new PayloadCompressor(6, null);
+        byte[] compressed = compressor.compress(DATA);
+        Assertions.assertTrue(compressed.length < DATA.length);
+        Assertions.assertArrayEquals(DATA, compressor.decompress(compressed));
+    }
+
+    @Test
+    public void testCompression__dictionary() throws IOException {
+        byte[] dictionary = "\"testCompression\"".getBytes(StandardCharsets.UTF_8);
+        PayloadCompressor compressor = new PayloadCompressor(6, dictionary);
+        byte[] compressed = compressor.compress(DATA);
+        Assertions.assertArrayEquals(DATA, compressor.decompress(compressed));
+
+        PayloadCompressor other = new PayloadCompressor(6, "other".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertThrows(IOException.class, () -> other.decompress(compressed));
+        Assertions.assertThrows(IOException.class, () -> new PayloadCompressor(6, null).decompress(compressed));
+    }
+
+    @Test
+    public void testCompression__corrupt() {
+        PayloadCompressor compressor = new PayloadCompressor(6, null);
+        byte[] compressed = compressor.compress(DATA);
+        Assertions.assertThrows(IOException.class, () -> compressor.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+    }
+
+    @Test
+    public void testCompression__maxInflatedBytes() throws IOException {
+        byte[] bomb = new PayloadCompressor(9, null).compress(new byte[1 << 20]); //About a kilobyte of zeroes
+        PayloadCompressor compressor = new PayloadCompressor(6, null, 1 << 16);
+        Assertions.assertThrows(IOException.class, () -> compressor.decompress(bomb));
+        Assertions.assertArrayEquals(DATA, compressor.decompress(compressor.compress(DATA)));
+        Assertions.assertEquals(1 << 16, compressor.decompress(compressor.compress(new byte[1 << 16])).length); //Exactly the limit
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PayloadCompressor(6, null, 0));
+    }
+}
@@ -0,0 +1,76 @@
+package me.drepic.proton.common.redis;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+class RedisEnvelopeTests {
+
+    private static final UUID SENDER_ID = UUID.randomUUID();
+    private static final byte[] DATA = "\"data\"".getBytes(StandardCharsets.UTF_8);
+    private static final List<String> GROUPS = Arrays.asList("group1", "group2");
+    private static final Map<String, String> HEADERS = Collections.singletonMap("vip", "true");
+
+    private static RedisEnvelope roundTrip(RedisEnvelope envelope, byte version) {
+        byte[] bytes = envelope.toBytes();
+        Assertions.assertTrue(RedisEnvelope.isEnvelope(bytes));
+        Assertions.assertEquals(version, bytes[1]);
+        RedisEnvelope read = RedisEnvelope.fromBytes(bytes);
+        Assertions.assertEquals(SENDER_ID, read.senderID);
+        Assertions.assertEquals((byte) 1, read.codec);
+        Assertions.assertEquals((byte) 2, read.flags);
+        Assertions.assertArrayEquals(DATA, read.data);
+        return read;
+    }
+
+    @Test
+    public void testEnvelope__versions() {
+        RedisEnvelope named = roundTrip(new RedisEnvelope("client1", SENDER_ID, (byte) 1, (byte) 2, DATA), RedisEnvelope.VERSION);
+        Assertions.assertEquals("client1", named.senderName);
+        Assertions.assertNull(named.senderGroups);
+        Assertions.assertNull(named.headers);
+
+        RedisEnvelope compact = roundTrip(new RedisEnvelope(7, SENDER_ID, (byte) 1, (byte) 2, DATA), RedisEnvelope.COMPACT_VERSION);
+        Assertions.assertNull(compact.senderName);
+        Assertions.assertEquals(7, compact.senderNameID);
+
+        RedisEnvelope metadata = roundTrip(new RedisEnvelope("client1", SENDER_ID, (byte) 1, (byte) 2, DATA, GROUPS, HEADERS),
+                RedisEnvelope.METADATA_VERSION);
+        Assertions.assertEquals(GROUPS, metadata.senderGroups);
+        Assertions.assertEquals(HEADERS, metadata.headers);
+
+        RedisEnvelope compactMetadata = roundTrip(new RedisEnvelope(7, SENDER_ID, (byte) 1, (byte) 2, DATA, GROUPS, HEADERS),
+                RedisEnvelope.COMPACT_METADATA_VERSION);
+        Assertions.assertEquals(7, compactMetadata.senderNameID);
+        Assertions.assertEquals(HEADERS, compactMetadata.headers);
+    }
+
+    @Test
+    public void testEnvelope__tooLong() {
+        String name = "a".repeat(0x10000);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new RedisEnvelope(name, SENDER_ID, (byte) 1, (byte) 2, DATA).toBytes());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new RedisEnvelope("client1", SENDER_ID, (byte) 1, (byte) 2, DATA,
+                GROUPS, Collections.singletonMap("long", name)).toBytes());
+        RedisEnvelope longest = roundTrip(new RedisEnvelope(name.substring(1), SENDER_ID, (byte) 1, (byte) 2, DATA), RedisEnvelope.VERSION);
+        Assertions.assertEquals(0xFFFF, longest.senderName.length());
+    }
+
+    @Test
+    public void testEnvelope__cachedSenderSection() {
+        RedisEnvelope envelope = new RedisEnvelope("client1", SENDER_ID, (byte) 1, (byte) 2, DATA, GROUPS, Collections.emptyMap());
+        byte[] section = new RedisEnvelope("client1", SENDER_ID, (byte) 0, (byte) 0, new byte[0], GROUPS, Collections.emptyMap()).senderSection();
+        Assertions.assertArrayEquals(envelope.toBytes(), RedisEnvelope.toBytes(section, (byte) 1, (byte) 2, DATA));
+    }
+
+    @Test
+    public void testEnvelope__legacyJson() {
+        Assertions.assertFalse(RedisEnvelope.isEnvelope("{\"senderName\":\"client1\"}".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> RedisEnvelope.fromBytes(new byte[]{RedisEnvelope.MAGIC, 9, 0, 0}));
+    }
+}